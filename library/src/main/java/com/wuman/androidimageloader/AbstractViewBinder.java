@@ -7,19 +7,26 @@ import java.util.WeakHashMap;
 import android.graphics.Bitmap;
 import android.text.TextUtils;
 
+import com.wuman.androidimageloader.ImageLoader.LoadHandle;
+import com.wuman.androidimageloader.ImageLoader.LoadResult;
 import com.wuman.androidimageloader.ImageLoader.LoadSource;
 
 public abstract class AbstractViewBinder<T> {
 
     protected final ImageLoader mImageLoader;
     protected final Map<T, String> mViewBindings;
+    protected final Map<T, LoadHandle> mPendingLoads;
+    protected final Map<T, Bitmap> mBoundBitmaps;
     protected int mLoadingResource;
     protected int mErrorResource;
+    protected TargetSize mTargetSize;
 
     public AbstractViewBinder(ImageLoader imageLoader) {
         super();
         mImageLoader = imageLoader;
         mViewBindings = new WeakHashMap<T, String>();
+        mPendingLoads = new WeakHashMap<T, LoadHandle>();
+        mBoundBitmaps = new WeakHashMap<T, Bitmap>();
         mLoadingResource = mErrorResource = 0;
     }
 
@@ -35,8 +42,41 @@ public abstract class AbstractViewBinder<T> {
         mErrorResource = error;
     }
 
+    /**
+     * Sets the size at which images are decoded for the bound views, or
+     * {@code null} to decode images at full size.
+     */
+    public final void setTargetSize(TargetSize size) {
+        mTargetSize = size;
+    }
+
     public void unbind(T view) {
         mViewBindings.remove(view);
+        LoadHandle pending = mPendingLoads.remove(view);
+        if (pending != null) {
+            pending.cancel();
+        }
+        setBoundBitmap(view, null);
+    }
+
+    /**
+     * Records the {@link Bitmap} shown by a view, so that the
+     * {@link ImageLoader} does not reuse it while it is shown. Subclasses
+     * showing a {@link Bitmap} they obtained from the {@link ImageLoader}
+     * directly must call this, or {@code null} once it is no longer shown.
+     */
+    protected final void setBoundBitmap(T view, Bitmap bitmap) {
+        Bitmap previous = bitmap != null ? mBoundBitmaps.put(view, bitmap)
+                : mBoundBitmaps.remove(view);
+        if (previous == bitmap) {
+            return;
+        }
+        if (bitmap != null) {
+            mImageLoader.acquireBitmap(bitmap);
+        }
+        if (previous != null) {
+            mImageLoader.releaseBitmap(previous);
+        }
     }
 
     public void bind(T view, String url) {
@@ -55,6 +95,44 @@ public abstract class AbstractViewBinder<T> {
         mViewBindings.put(view, url);
     }
 
+    /**
+     * Loads the image at the given URL into the view. The pending load is
+     * cancelled if the view is unbound or bound to another URL before the load
+     * completes.
+     */
+    protected final LoadResult load(T view, String url) {
+        ViewCallback callback = new ViewCallback(view);
+        LoadHandle handle = mImageLoader.load(url, mTargetSize, callback);
+        LoadHandle previous;
+        if (handle.getLoadResult() == LoadResult.LOADING) {
+            callback.mHandle = handle;
+            previous = mPendingLoads.put(view, handle);
+        } else {
+            previous = mPendingLoads.remove(view);
+        }
+        if (previous != null) {
+            previous.cancel();
+        }
+        return handle.getLoadResult();
+    }
+
+    /**
+     * Shows the image at the given URL in the view only if it is in the
+     * memory cache, without loading it otherwise. The {@link Bitmap} is
+     * recorded with {@link #setBoundBitmap(Object, Bitmap)}, which holds the
+     * only reference to it.
+     *
+     * @return the {@link Bitmap}, or {@code null} if it is not in memory.
+     */
+    protected final Bitmap bindFromMemCache(T view, String url) {
+        Bitmap bitmap = mImageLoader.acquireFromMemCache(url, mTargetSize);
+        setBoundBitmap(view, bitmap);
+        if (bitmap != null) {
+            mImageLoader.releaseBitmap(bitmap);
+        }
+        return bitmap;
+    }
+
     protected abstract void onImageLoaded(T view, Bitmap bitmap, String url,
             LoadSource loadSource);
 
@@ -63,20 +141,40 @@ public abstract class AbstractViewBinder<T> {
     protected class ViewCallback implements ImageLoader.Callback {
         private final WeakReference<T> mViewReference;
 
+        /**
+         * The pending load delivering to this callback, or {@code null} if it
+         * completed immediately.
+         */
+        private LoadHandle mHandle;
+
         public ViewCallback(T imageView) {
             super();
             mViewReference = new WeakReference<T>(imageView);
         }
 
+        /**
+         * Forgets the load once it has completed, so that it does not keep
+         * its result alive until the view is bound again.
+         */
+        private void removePendingLoad(T view) {
+            if (view != null && mHandle != null
+                    && mPendingLoads.get(view) == mHandle) {
+                mPendingLoads.remove(view);
+            }
+            mHandle = null;
+        }
+
         @Override
         public void onImageLoaded(Bitmap bitmap, String url,
                 LoadSource loadSource) {
             T view = mViewReference.get();
+            removePendingLoad(view);
             String binding = mViewBindings.get(view);
             if (view == null || bitmap == null
                     || !TextUtils.equals(binding, url)) {
                 return;
             }
+            setBoundBitmap(view, bitmap);
             AbstractViewBinder.this
                     .onImageLoaded(view, bitmap, url, loadSource);
         }
@@ -84,11 +182,13 @@ public abstract class AbstractViewBinder<T> {
         @Override
         public void onImageError(String url, Throwable error) {
             T view = mViewReference.get();
+            removePendingLoad(view);
             String binding = mViewBindings.get(view);
             if (view == null || error == null
                     || !TextUtils.equals(binding, url)) {
                 return;
             }
+            setBoundBitmap(view, null);
             AbstractViewBinder.this.onImageError(view, url, error);
         }
     }
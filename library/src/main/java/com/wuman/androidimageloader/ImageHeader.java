@@ -0,0 +1,60 @@
+package com.wuman.androidimageloader;
+
+/**
+ * Reads what the loader needs to know from the first bytes of an encoded
+ * image, before decoding it.
+ */
+final class ImageHeader {
+
+    private static final int PNG_SIGNATURE_LENGTH = 8;
+
+    private static final int PNG_COLOR_TYPE_OFFSET = 25;
+
+    private ImageHeader() {
+    }
+
+    /**
+     * Returns {@code true} if the encoded image has no transparent pixels,
+     * judging by its format: JPEGs are always opaque, and PNGs are opaque if
+     * they have neither an alpha channel nor a transparent color.
+     */
+    static boolean isOpaque(byte[] encoded, String mimeType) {
+        // The header may not reach the image data, in which case the image
+        // is not known to be opaque.
+        if ("image/jpeg".equals(mimeType)) {
+            return true;
+        }
+        if (!"image/png".equals(mimeType)
+                || encoded.length <= PNG_COLOR_TYPE_OFFSET) {
+            return false;
+        }
+        int colorType = encoded[PNG_COLOR_TYPE_OFFSET];
+        // Greyscale, true color or indexed color, without alpha
+        if (colorType != 0 && colorType != 2 && colorType != 3) {
+            return false;
+        }
+        // A tRNS chunk, which precedes the image data, adds transparency.
+        int offset = PNG_SIGNATURE_LENGTH;
+        while (offset + 8 <= encoded.length) {
+            int length = ((encoded[offset] & 0xff) << 24)
+                    | ((encoded[offset + 1] & 0xff) << 16)
+                    | ((encoded[offset + 2] & 0xff) << 8)
+                    | (encoded[offset + 3] & 0xff);
+            if (length < 0 || length > encoded.length) {
+                // Corrupt
+                return false;
+            }
+            String type = new String(encoded, offset + 4, 4);
+            if ("tRNS".equals(type)) {
+                return false;
+            }
+            if ("IDAT".equals(type)) {
+                return true;
+            }
+            // Length, type, data and CRC
+            offset += 12 + length;
+        }
+        return false;
+    }
+
+}
@@ -17,43 +17,74 @@
 package com.wuman.androidimageloader;
 
 import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.net.ContentHandler;
 import java.net.URL;
 import java.net.URLConnection;
 import java.net.URLStreamHandler;
 import java.net.URLStreamHandlerFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.WeakHashMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.io.IOUtils;
 
 import android.app.Activity;
 import android.app.Application;
+import android.content.ComponentCallbacks2;
 import android.content.ContentResolver;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.DataSetObserver;
 import android.graphics.Bitmap;
-import android.graphics.Bitmap.CompressFormat;
 import android.graphics.BitmapFactory;
 import android.net.Uri;
+import android.os.Build;
+import android.os.Handler;
 import android.os.Looper;
+import android.os.Message;
+import android.os.Process;
 import android.os.SystemClock;
 import android.text.TextUtils;
 import android.util.Log;
 import android.widget.ImageView;
 
-import com.jakewharton.DiskLruCache;
-import com.jakewharton.DiskLruCache.Editor;
 import com.jakewharton.DiskLruCache.Snapshot;
+import com.wuman.androidimageloader.cache.BitmapPool;
+import com.wuman.androidimageloader.cache.DiskCache;
+import com.wuman.androidimageloader.cache.DiskCacheWriter;
+import com.wuman.androidimageloader.cache.DiskEvictionPolicy;
+import com.wuman.androidimageloader.cache.EncodedMemoryCache;
+import com.wuman.androidimageloader.cache.GdsfDiskEvictionPolicy;
+import com.wuman.androidimageloader.cache.LruDiskEvictionPolicy;
+import com.wuman.androidimageloader.cache.StripedLruCache;
+import com.wuman.androidimageloader.cache.WeakValueCache;
 import com.wuman.androidimageloader.net.BitmapContentHandler;
 import com.wuman.androidimageloader.net.ContentURLStreamHandlerFactory;
-import com.wuman.androidimageloader.util.LifoAsyncTask;
+import com.wuman.androidimageloader.net.HttpCacheMetadata;
+import com.wuman.androidimageloader.util.CancellationSignal;
+import com.wuman.androidimageloader.util.concurrent.AdaptiveThreadPoolSizer;
+import com.wuman.androidimageloader.util.concurrent.Prioritized;
+import com.wuman.androidimageloader.util.concurrent.PriorityBlockingStack;
 import com.wuman.twolevellrucache.LruCache;
-import com.wuman.twolevellrucache.TwoLevelLruCache;
 
 /**
  * A helper class to load images asynchronously.
@@ -62,7 +93,95 @@ public final class ImageLoader {
 
     private static final String LOG_TAG = ImageLoader.class.getSimpleName();
 
-    private static final int APP_VERSION = 1;
+    private static final int APP_VERSION = 2;
+
+    /**
+     * Disk reads are short, so a couple of threads keep up with the flash
+     * storage without competing with decoding.
+     */
+    private static final int DISK_POOL_SIZE = 2;
+
+    /**
+     * The disk cache is accessed by the disk threads as well as the network
+     * threads writing what they fetched, so it is split into shards that do
+     * not share a lock.
+     */
+    private static final int DISK_CACHE_SHARDS = 4;
+
+    /**
+     * Network fetches spend most of their time waiting, so more threads are
+     * used to hide latency. This is the initial size; the pool is resized by
+     * {@link #sNetworkPoolSizer} as network conditions change.
+     */
+    private static final int NETWORK_POOL_SIZE = 4;
+
+    private static final int DEFAULT_MIN_NETWORK_POOL_SIZE = 2;
+
+    private static final int DEFAULT_MAX_NETWORK_POOL_SIZE = 12;
+
+    /**
+     * Decoding is CPU-bound.
+     */
+    private static final int DECODE_POOL_SIZE = Math.max(1, Runtime
+            .getRuntime().availableProcessors());
+
+    private static final int KEEP_ALIVE = 1;
+
+    /**
+     * The maximum number of URLs handled by one task of a bulk pre-load or
+     * pre-fetch. Larger bulk requests are split into several tasks, so that
+     * more urgent requests can run in between.
+     */
+    private static final int MAX_BATCH_SIZE = 16;
+
+    /**
+     * The maximum number of disk cache entries kept open while they wait for
+     * the decode stage. Each holds file descriptors, so further entries are
+     * opened again once they are decoded.
+     */
+    private static final int MAX_WAITING_SNAPSHOTS = 16;
+
+    private static final int MESSAGE_DELIVER_RESULT = 0x1;
+
+    /**
+     * An {@link Executor} that invokes callbacks in the thread that completed
+     * the load, without a hop through the main thread.
+     */
+    public static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private static final ResultHandler sHandler = new ResultHandler();
+
+    /**
+     * Runs disk work, such as opening a disk cache, ahead of all queued
+     * requests in the disk pool.
+     */
+    private static final Executor sUrgentDiskExecutor = new Executor() {
+        @Override
+        public void execute(final Runnable command) {
+            Stage.DISK.mExecutor.execute(new UrgentTask(command));
+        }
+    };
+
+    /**
+     * Runs disk housekeeping that nothing waits for, such as deleting the
+     * files of a cleared disk cache and promoting entries from the secondary
+     * disk cache, in a single thread of low priority, so that it never holds
+     * up the disk pool.
+     */
+    private static final Executor sHousekeepingExecutor = newHousekeepingExecutor();
+
+    /**
+     * Grows the network pool while throughput improves and shrinks it when
+     * latency climbs.
+     */
+    private static final AdaptiveThreadPoolSizer sNetworkPoolSizer = new AdaptiveThreadPoolSizer(
+            Stage.NETWORK.mExecutor, DEFAULT_MIN_NETWORK_POOL_SIZE,
+            DEFAULT_MAX_NETWORK_POOL_SIZE);
 
     /**
      * The default cache size (in bytes).
@@ -71,6 +190,14 @@ public final class ImageLoader {
     public static final long DEFAULT_CACHE_SIZE = Math.min(Runtime.getRuntime()
             .maxMemory() / 4, 16 * 1024 * 1024);
 
+    /**
+     * The default maximum number of bytes of fetched images waiting to be
+     * written to the disk cache.
+     */
+    // 1/16 of available memory, up to a maximum of 4MB
+    public static final long DEFAULT_DISK_WRITE_BUFFER_SIZE = Math.min(Runtime
+            .getRuntime().maxMemory() / 16, 4 * 1024 * 1024);
+
     /**
      * Use with {@link Context#getSystemService(String)} to retrieve an
      * {@link ImageLoader} for loading images.
@@ -140,6 +267,23 @@ public final class ImageLoader {
         void onImageError(String url, Throwable error);
     }
 
+    /**
+     * Notified once the disk cache has been opened.
+     * 
+     * @see ImageLoader#addOnDiskCacheReadyListener(OnDiskCacheReadyListener)
+     */
+    public interface OnDiskCacheReadyListener {
+        /**
+         * Called in the main thread once the disk cache has been opened.
+         * Until then, images are only loaded from memory or from their URL.
+         * 
+         * @param available
+         *            {@code false} if the {@link ImageLoader} has no disk cache
+         *            or it could not be opened.
+         */
+        void onDiskCacheReady(ImageLoader loader, boolean available);
+    }
+
     public static enum LoadResult {
         /**
          * Returned when an image was already loaded from memory cache.
@@ -171,7 +315,8 @@ public final class ImageLoader {
          */
         CACHE_MEMORY,
         /**
-         * Returned when an image was loaded from disk cache.
+         * Returned when an image was decoded from the disk cache, or from the
+         * encoded images cached in memory in front of it.
          */
         CACHE_DISK,
         /**
@@ -181,6 +326,298 @@ public final class ImageLoader {
         EXTERNAL
     }
 
+    /**
+     * A handle to a single call to {@link ImageLoader#load(String, Callback)}
+     * or {@link ImageLoader#preload(String)}.
+     * <p>
+     * Cancelling a handle detaches its callback from the underlying request.
+     * Once every caller interested in a URL has cancelled, the request is
+     * removed from the work queue, or aborted if it is already being loaded.
+     * <p>
+     * The handle is also a {@link Future} of the loaded {@link Bitmap}, so that
+     * background threads can wait for the result. Errors are reported by
+     * {@link #get()} as an {@link ExecutionException}.
+     */
+    public final class LoadHandle implements Future<Bitmap> {
+
+        private final String mUrl;
+
+        private final LoadResult mLoadResult;
+
+        private final Callback mCallback;
+
+        private final Executor mCallbackExecutor;
+
+        private final Priority mPriority;
+
+        // The following are guarded by this.
+
+        private ImageRequest mRequest;
+
+        private boolean mCancelled;
+
+        private boolean mDone;
+
+        /**
+         * Set from completion until the callback is invoked, so that the
+         * handle can still be cancelled in that window.
+         */
+        private boolean mDeliveryPending;
+
+        private Bitmap mBitmap;
+
+        /**
+         * Set once the {@link Bitmap} has been returned by {@link #get()},
+         * after which it is never pooled.
+         */
+        private boolean mRetained;
+
+        private LoadSource mLoadSource;
+
+        private Throwable mError;
+
+        private LoadHandle(String url, LoadResult loadResult,
+                Callback callback, Executor callbackExecutor, Priority priority) {
+            mUrl = url;
+            mLoadResult = loadResult;
+            mCallback = callback;
+            mCallbackExecutor = callbackExecutor;
+            mPriority = priority;
+        }
+
+        /**
+         * Returns the {@link LoadResult} at the time the load was requested.
+         */
+        public LoadResult getLoadResult() {
+            return mLoadResult;
+        }
+
+        /**
+         * Returns {@code true} if {@link #cancel()} has been called on this
+         * handle.
+         */
+        @Override
+        public synchronized boolean isCancelled() {
+            return mCancelled;
+        }
+
+        @Override
+        public synchronized boolean isDone() {
+            return mDone || mCancelled;
+        }
+
+        /**
+         * Cancels the load. If the callback is delivered in the main thread
+         * and this method is called in the main thread, the callback will not
+         * be invoked after this method returns.
+         * 
+         * @return {@code false} if the result had already been delivered or
+         *         the load was already cancelled, {@code true} otherwise.
+         */
+        public boolean cancel() {
+            ImageRequest request;
+            synchronized (this) {
+                if (mCancelled || (mDone && !mDeliveryPending)) {
+                    return false;
+                }
+                mCancelled = true;
+                request = mRequest;
+                mRequest = null;
+                notifyAll();
+            }
+            if (request != null) {
+                request.detach(this);
+            }
+            return true;
+        }
+
+        /**
+         * Same as {@link #cancel()}. Loads are never interrupted, but aborted
+         * cooperatively.
+         */
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return cancel();
+        }
+
+        /**
+         * Waits for the load to complete. The returned {@link Bitmap} is never
+         * reused by the bitmap pool, since it may be kept indefinitely.
+         */
+        @Override
+        public synchronized Bitmap get() throws InterruptedException,
+                ExecutionException {
+            while (!isDone()) {
+                wait();
+            }
+            return getResult();
+        }
+
+        @Override
+        public synchronized Bitmap get(long timeout, TimeUnit unit)
+                throws InterruptedException, ExecutionException,
+                TimeoutException {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            while (!isDone()) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    throw new TimeoutException();
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+            return getResult();
+        }
+
+        /**
+         * Returns where the {@link Bitmap} was loaded from, or {@code null} if
+         * the load has not completed successfully.
+         */
+        public synchronized LoadSource getLoadSource() {
+            return mLoadSource;
+        }
+
+        private Bitmap getResult() throws ExecutionException {
+            if (mCancelled) {
+                throw new CancellationException();
+            }
+            if (mError != null) {
+                throw new ExecutionException(mError);
+            }
+            if (mBitmap != null && !mRetained) {
+                // Never released.
+                acquireBitmap(mBitmap);
+                mRetained = true;
+            }
+            return mBitmap;
+        }
+
+        /**
+         * Records the result and delivers it to the callback, unless the
+         * handle was cancelled.
+         * 
+         * @return {@code true} if the callback must still be invoked in the
+         *         main thread with {@link #deliver()}.
+         */
+        private boolean complete(Bitmap bitmap, LoadSource loadSource,
+                Throwable error) {
+            synchronized (this) {
+                if (mCancelled || mDone) {
+                    return false;
+                }
+                mDone = true;
+                mDeliveryPending = mCallback != null;
+                mRequest = null;
+                mBitmap = bitmap;
+                mLoadSource = loadSource;
+                mError = error;
+                notifyAll();
+            }
+            if (mCallback == null) {
+                return false;
+            }
+            if (bitmap != null) {
+                // Not pooled until the callback has been invoked and the view
+                // binder has acquired it in turn. Released by deliver().
+                acquireBitmap(bitmap);
+            }
+            if (mCallbackExecutor == null) {
+                return true;
+            }
+            mCallbackExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    deliver();
+                }
+            });
+            return false;
+        }
+
+        private void deliver() {
+            Bitmap bitmap;
+            LoadSource loadSource;
+            Throwable error;
+            boolean cancelled;
+            synchronized (this) {
+                mDeliveryPending = false;
+                cancelled = mCancelled;
+                bitmap = mBitmap;
+                loadSource = mLoadSource;
+                error = mError;
+            }
+            try {
+                if (cancelled) {
+                    return;
+                }
+                if (error != null) {
+                    mCallback.onImageError(mUrl, error);
+                } else if (bitmap != null) {
+                    mCallback.onImageLoaded(bitmap, mUrl, loadSource);
+                }
+            } finally {
+                if (bitmap != null) {
+                    releaseBitmap(bitmap);
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Selects the {@link Bitmap.Config} that images are decoded with.
+     */
+    public static enum ConfigPolicy {
+        /**
+         * Decode all images with {@link Bitmap.Config#ARGB_8888}. This is the
+         * default.
+         */
+        ARGB_8888,
+        /**
+         * Decode opaque images, that is JPEGs and PNGs without an alpha
+         * channel or transparent color, with {@link Bitmap.Config#RGB_565},
+         * which halves their size in memory at the cost of some color
+         * banding. Other images are decoded with
+         * {@link Bitmap.Config#ARGB_8888}.
+         */
+        RGB_565_IF_OPAQUE
+    }
+
+    /**
+     * The priority class of a request. Requests of a more urgent class are
+     * always started before requests of a less urgent class; within a class
+     * the most recent request is started first.
+     */
+    public static enum Priority {
+        /**
+         * An image that is currently on screen. This is the priority of
+         * {@link ImageLoader#load(String, Callback)}.
+         */
+        VISIBLE,
+        /**
+         * An image that is about to scroll onto the screen.
+         */
+        NEAR_VISIBLE,
+        /**
+         * An image being pre-loaded into memory. This is the priority of
+         * {@link ImageLoader#preload(String)}.
+         */
+        PRELOAD,
+        /**
+         * An image being pre-fetched into the file-based cache. This is the
+         * priority of {@link ImageLoader#prefetch(String)}.
+         */
+        PREFETCH
+    }
+
+    private static Executor newHousekeepingExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, KEEP_ALIVE,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new StageThreadFactory("housekeeping",
+                        Process.THREAD_PRIORITY_BACKGROUND
+                                + Process.THREAD_PRIORITY_LESS_FAVORABLE));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
     private static String getProtocol(String url) {
         Uri uri = Uri.parse(url);
         return uri.getScheme();
@@ -197,27 +634,86 @@ public final class ImageLoader {
     /**
      * A cache containing recently used bitmaps in memory.
      * <p>
-     * Use soft references so that the application does not run out of memory in
-     * the case where one or more of the bitmaps are large.
+     * Bitmaps are held by strong references up to the size of the cache, and
+     * the least recently used are evicted beyond it. Evicted bitmaps that are
+     * not pooled move to {@link #mEvictedBitmaps}, which only holds weak
+     * references, so they can still be found while a view shows them without
+     * the cache keeping them in memory.
+     * <p>
+     * The cache is striped, so that lookups on the UI thread rarely wait for
+     * worker threads using the cache at the same time.
+     */
+    private final StripedLruCache<String, Bitmap> mBitmapsInMem;
+
+    /**
+     * Bitmaps evicted from {@link #mBitmapsInMem} but not pooled, which can
+     * still be found while something else, such as a view, references them.
+     * They take no extra memory, since they cannot be freed anyway.
+     */
+    private final WeakValueCache<String, Bitmap> mEvictedBitmaps;
+
+    /**
+     * Bitmaps evicted from {@link #mBitmapsInMem}, reused when decoding.
+     * Disabled unless a size is set with {@link #setBitmapPoolSize(long)}.
+     */
+    private final BitmapPool mBitmapPool;
+
+    /**
+     * Encoded images, decoded again when their bitmaps have been evicted from
+     * {@link #mBitmapsInMem}, before falling back to {@link #mBitmapsInDisk}.
+     * Disabled unless a size is set with {@link #setEncodedCacheSize(long)}.
+     */
+    private final EncodedMemoryCache mEncodedInMem;
+
+    private volatile ConfigPolicy mConfigPolicy = ConfigPolicy.ARGB_8888;
+
+    /**
+     * Bitmaps currently shown by view binders or waiting to be delivered,
+     * with the number of users of each. They are never put into
+     * {@link #mBitmapPool}. Guarded by itself.
+     */
+    private final WeakHashMap<Bitmap, int[]> mBitmapsInUse;
+
+    /**
+     * A cache containing recently used bitmaps on file. It is opened in the
+     * background and treated as empty until then.
+     */
+    private final DiskCache mBitmapsInDisk;
+
+    /**
+     * Writes fetched images to {@link #mBitmapsInDisk} in the background, so
+     * that network threads can move on to the next request right away.
      */
-    private final LruCache<String, Bitmap> mBitmapsInMem;
+    private final DiskCacheWriter mDiskWriter;
 
     /**
-     * A cache containing recently used bitmaps on file.
+     * The number of {@link SnapshotImage}s holding a disk cache entry open.
      */
-    private DiskLruCache mBitmapsInDisk;
+    private final AtomicInteger mOpenSnapshots = new AtomicInteger();
 
     /**
-     * A {@link BitmapConverter} for converting a {@link Bitmap} to and from
-     * bytes.
+     * Listeners waiting for the disk cache to be opened. Guarded by itself,
+     * as are {@link #mDiskCacheReady} and {@link #mDiskCacheAvailable}.
      */
-    private final BitmapConverter mBitmapConverter;
+    private final List<OnDiskCacheReadyListener> mDiskCacheReadyListeners;
+
+    private boolean mDiskCacheReady;
+
+    private boolean mDiskCacheAvailable;
 
     /**
      * Recent errors encountered when loading bitmaps.
      */
     private final LruCache<String, ImageError> mErrors;
 
+    /**
+     * Requests that have been enqueued but whose results have not been
+     * published yet, keyed by URL and {@link TargetSize}.
+     * <p>
+     * Also guards the handles attached to each request.
+     */
+    private final HashMap<String, ImageRequest> mPendingRequests;
+
     /**
      * Creates an {@link ImageLoader}.
      * 
@@ -233,7 +729,15 @@ public final class ImageLoader {
      *            {@link ContentHandler#getContent(URLConnection)} must either
      *            return a {@link Bitmap} or throw an {@link IOException}. This
      *            parameter can be {@code null} to use the default
-     *            {@link BitmapContentHandler}.
+     *            {@link BitmapContentHandler}. Only an instance of exactly
+     *            that class lets the loader fetch the original bytes, which
+     *            are cached on disk, revalidated with HTTP caching headers and
+     *            decoded at the {@link TargetSize} in a separate stage. Any
+     *            other handler, including a subclass, is called through
+     *            {@link ContentHandler#getContent(URLConnection)}. The images
+     *            it returns are loaded and cached at full size, even if a
+     *            {@link TargetSize} is requested, are cached on disk as PNGs
+     *            and are never revalidated.
      * @param prefetchHandler
      *            a {@link ContentHandler} for caching a remote URL as a file,
      *            without parsing it or loading it into memory.
@@ -244,18 +748,76 @@ public final class ImageLoader {
      *            nothing. The {@link ContentHandler} can be {@code null} if
      *            pre-fetching is not required.
      * @param cacheSize
-     *            the maximum size of the image cache (in bytes).
+     *            the maximum size of the image cache (in bytes). The disk
+     *            cache may hold twice as much.
      * @param directory
-     *            optional directory for disk cache
+     *            optional directory for disk cache. The disk cache is opened
+     *            in the background; see
+     *            {@link #addOnDiskCacheReadyListener(OnDiskCacheReadyListener)}.
      * @throws IOException
-     *             if the disk cache cannot be opened.
      */
     public ImageLoader(URLStreamHandlerFactory streamFactory,
             ContentHandler bitmapHandler, ContentHandler prefetchHandler,
             long cacheSize, File directory) throws IOException {
+        this(streamFactory, bitmapHandler, prefetchHandler, cacheSize,
+                directory, cacheSize * 2);
+    }
+
+    /**
+     * Creates an {@link ImageLoader} with a disk cache of the given size.
+     * 
+     * @param diskCacheSize
+     *            the maximum size of the disk cache (in bytes).
+     * @see #ImageLoader(URLStreamHandlerFactory, ContentHandler,
+     *      ContentHandler, long, File)
+     * @throws IOException
+     */
+    public ImageLoader(URLStreamHandlerFactory streamFactory,
+            ContentHandler bitmapHandler, ContentHandler prefetchHandler,
+            long cacheSize, File directory, long diskCacheSize)
+            throws IOException {
+        this(streamFactory, bitmapHandler, prefetchHandler, cacheSize,
+                directory, diskCacheSize, null, 0);
+    }
+
+    /**
+     * Creates an {@link ImageLoader} with a disk cache in two tiers: a small
+     * one, usually on internal storage, holding the images loaded most
+     * recently or most often, and a large one, usually on external storage,
+     * holding the images evicted from the small one. Images read from the
+     * large tier are moved back to the small one.
+     * 
+     * @param directory
+     *            the directory of the small tier.
+     * @param diskCacheSize
+     *            the maximum size of the small tier (in bytes).
+     * @param secondaryDirectory
+     *            the directory of the large tier, or {@code null} for none.
+     *            If it cannot be opened, for example because external storage
+     *            is not mounted, it is treated as empty.
+     * @param secondaryDiskCacheSize
+     *            the maximum size of the large tier (in bytes).
+     * @see #ImageLoader(URLStreamHandlerFactory, ContentHandler,
+     *      ContentHandler, long, File)
+     * @throws IOException
+     */
+    public ImageLoader(URLStreamHandlerFactory streamFactory,
+            ContentHandler bitmapHandler, ContentHandler prefetchHandler,
+            long cacheSize, File directory, long diskCacheSize,
+            File secondaryDirectory, long secondaryDiskCacheSize)
+            throws IOException {
         if (cacheSize < 1) {
             throw new IllegalArgumentException("Cache size must be positive");
         }
+        if (directory != null && diskCacheSize < 1) {
+            throw new IllegalArgumentException(
+                    "Disk cache size must be positive");
+        }
+        if (directory != null && secondaryDirectory != null
+                && secondaryDiskCacheSize < 1) {
+            throw new IllegalArgumentException(
+                    "Secondary disk cache size must be positive");
+        }
         mURLStreamHandlerFactory = streamFactory;
         mStreamHandlers = streamFactory != null ? new HashMap<String, URLStreamHandler>()
                 : null;
@@ -266,22 +828,57 @@ public final class ImageLoader {
         // Use a LruCache to prevent the set of keys from growing too large.
         // The Maps must be synchronized because they are accessed
         // by the UI thread and by background threads.
-        mBitmapsInMem = new LruCache<String, Bitmap>((int) cacheSize) {
-            // Assume a 32-bit image
-            private static final int BYTES_PER_PIXEL = 4;
+        mBitmapPool = new BitmapPool(0);
+        mEncodedInMem = new EncodedMemoryCache(0);
+        mBitmapsInUse = new WeakHashMap<Bitmap, int[]>();
+        mEvictedBitmaps = new WeakValueCache<String, Bitmap>();
+        mBitmapsInMem = new StripedLruCache<String, Bitmap>(cacheSize) {
 
             @Override
             protected int sizeOf(String key, Bitmap value) {
-                return value.getWidth() * value.getHeight() * BYTES_PER_PIXEL;
+                return BitmapPool.getByteCount(value);
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key,
+                    Bitmap oldValue, Bitmap newValue) {
+                if (evicted && !poolUnlessInUse(oldValue)) {
+                    mEvictedBitmaps.put(key, oldValue);
+                }
             }
 
         };
         mErrors = new LruCache<String, ImageError>(256);
+        mPendingRequests = new HashMap<String, ImageRequest>();
 
-        mBitmapsInDisk = directory == null ? null : DiskLruCache.open(
-                directory, APP_VERSION, 1, cacheSize * 2);
-        mBitmapConverter = mBitmapsInDisk == null ? null
-                : new BitmapConverter();
+        mDiskCacheReadyListeners = new ArrayList<OnDiskCacheReadyListener>();
+        if (directory == null) {
+            mBitmapsInDisk = null;
+            mDiskWriter = null;
+            mDiskCacheReady = true;
+        } else {
+            mBitmapsInDisk = new DiskCache(directory, APP_VERSION,
+                    diskCacheSize, DISK_CACHE_SHARDS, sUrgentDiskExecutor);
+            mBitmapsInDisk.setHousekeepingExecutor(sHousekeepingExecutor);
+            mBitmapsInDisk.setEvictionPolicy(new GdsfDiskEvictionPolicy());
+            if (secondaryDirectory != null) {
+                // Few threads read from the large tier, so one shard will do.
+                DiskCache secondary = new DiskCache(secondaryDirectory,
+                        APP_VERSION, secondaryDiskCacheSize,
+                        sUrgentDiskExecutor);
+                secondary.setHousekeepingExecutor(sHousekeepingExecutor);
+                secondary.open(null);
+                mBitmapsInDisk.setNextTier(secondary);
+            }
+            mDiskWriter = new DiskCacheWriter(mBitmapsInDisk,
+                    DEFAULT_DISK_WRITE_BUFFER_SIZE);
+            mBitmapsInDisk.open(new DiskCache.OnOpenListener() {
+                        @Override
+                        public void onOpen(DiskCache cache, boolean opened) {
+                            onDiskCacheOpened(opened);
+                        }
+                    });
+        }
     }
 
     /**
@@ -383,75 +980,517 @@ public final class ImageLoader {
         this(factory, null, null, DEFAULT_CACHE_SIZE, null);
     }
 
-    public final String getCacheDebugStats() {
-        return mBitmapsInMem.toString();
+    /**
+     * Returns {@code true} once the disk cache has been opened, or if there
+     * is no disk cache.
+     */
+    public boolean isDiskCacheReady() {
+        synchronized (mDiskCacheReadyListeners) {
+            return mDiskCacheReady;
+        }
     }
 
-    private URLStreamHandler getURLStreamHandler(String protocol) {
-        URLStreamHandlerFactory factory = mURLStreamHandlerFactory;
-        if (factory == null) {
-            return null;
+    /**
+     * Adds a listener notified in the main thread once the disk cache has
+     * been opened. If it is already open, the listener is notified right away.
+     */
+    public void addOnDiskCacheReadyListener(
+            final OnDiskCacheReadyListener listener) {
+        if (listener == null) {
+            throw new NullPointerException("listener is null");
         }
-        HashMap<String, URLStreamHandler> handlers = mStreamHandlers;
-        synchronized (handlers) {
-            URLStreamHandler handler = handlers.get(protocol);
-            if (handler == null) {
-                handler = factory.createURLStreamHandler(protocol);
-                if (handler != null) {
-                    handlers.put(protocol, handler);
-                }
+        final boolean available;
+        synchronized (mDiskCacheReadyListeners) {
+            if (!mDiskCacheReady) {
+                mDiskCacheReadyListeners.add(listener);
+                return;
             }
-            return handler;
+            available = mDiskCacheAvailable;
         }
+        sHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                listener.onDiskCacheReady(ImageLoader.this, available);
+            }
+        });
     }
 
-    private void enqueueRequest(ImageRequest request) {
-        if (Looper.myLooper() != Looper.getMainLooper()) {
-            throw new RuntimeException("Must be called in the main thread.");
+    public void removeOnDiskCacheReadyListener(
+            OnDiskCacheReadyListener listener) {
+        synchronized (mDiskCacheReadyListeners) {
+            mDiskCacheReadyListeners.remove(listener);
         }
-        ImageTask task = new ImageTask();
-        task.executeOnExecutor(ImageTask.LIFO_THREAD_POOL_EXECUTOR, request);
     }
 
-    /**
-     * Loads an image at the given URL.
-     * <p>
-     * If the image needs to be loaded asynchronously, it will be assigned at a
-     * later time.
-     * 
-     * @param url
-     *            the image URL.
-     * @param callback
+    private void onDiskCacheOpened(final boolean available) {
+        final List<OnDiskCacheReadyListener> listeners;
+        synchronized (mDiskCacheReadyListeners) {
+            mDiskCacheReady = true;
+            mDiskCacheAvailable = available;
+            listeners = new ArrayList<OnDiskCacheReadyListener>(
+                    mDiskCacheReadyListeners);
+            mDiskCacheReadyListeners.clear();
+        }
+        if (listeners.isEmpty()) {
+            return;
+        }
+        sHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (OnDiskCacheReadyListener listener : listeners) {
+                    listener.onDiskCacheReady(ImageLoader.this, available);
+                }
+            }
+        });
+    }
+
+    public final String getCacheDebugStats() {
+        return mBitmapsInMem.toString();
+    }
+
+    /**
+     * Returns the size of each shard of the disk cache, how often threads
+     * waited for each other in each shard, and the state of the queue of
+     * pending disk writes. The tiers of the disk cache are listed in order.
+     */
+    public final String getDiskCacheDebugStats() {
+        if (mBitmapsInDisk == null) {
+            return "DiskCache[none]";
+        }
+        StringBuilder builder = new StringBuilder();
+        for (DiskCache tier = mBitmapsInDisk; tier != null; tier = tier
+                .getNextTier()) {
+            builder.append(tier).append(' ');
+        }
+        return builder.append(mDiskWriter).toString();
+    }
+
+    /**
+     * Sets the policy choosing the images evicted from the disk cache. The
+     * default, {@link GdsfDiskEvictionPolicy}, keeps small images that are
+     * loaded often in favor of large images, which maximizes the number of
+     * requests served from disk. Use {@link LruDiskEvictionPolicy} to maximize
+     * the number of bytes served from disk instead.
+     */
+    public void setDiskEvictionPolicy(DiskEvictionPolicy policy) {
+        if (mBitmapsInDisk != null) {
+            mBitmapsInDisk.setEvictionPolicy(policy);
+        }
+    }
+
+    /**
+     * Sets the policy choosing the bitmaps evicted from the memory cache. The
+     * default, {@link StripedLruCache.Policy#LRU}, evicts the least recently
+     * used bitmaps. {@link StripedLruCache.Policy#TINY_LFU} keeps bitmaps
+     * that are loaded often, such as avatars and icons, when many bitmaps are
+     * loaded only once, for example by
+     * {@link #preload(Cursor, int, int, int)} or while flinging a list.
+     * {@link StripedLruCache.Policy#COST_AWARE} keeps bitmaps that took long
+     * to load, for example over a slow network, in favor of bitmaps that can
+     * be loaded again quickly, for example from local files.
+     * {@link #getCacheDebugStats()} reports the hit rate of each policy since
+     * the stats were last cleared.
+     */
+    public void setMemoryCachePolicy(StripedLruCache.Policy policy) {
+        mBitmapsInMem.setPolicy(policy);
+    }
+
+    /**
+     * Sets the policy selecting the {@link Bitmap.Config} of decoded images.
+     * Only affects images loaded afterwards.
+     */
+    public void setConfigPolicy(ConfigPolicy policy) {
+        if (policy == null) {
+            throw new NullPointerException("ConfigPolicy is null");
+        }
+        mConfigPolicy = policy;
+    }
+
+    /**
+     * Sets the maximum number of bytes held by the pool of bitmaps evicted
+     * from the memory cache. Pooled bitmaps are reused when decoding, which
+     * avoids allocations and garbage collection pauses. {@code 0}, the
+     * default, disables the pool. Bitmaps are only reused on Honeycomb and
+     * later.
+     * <p>
+     * Bitmaps shown by a {@link AbstractViewBinder}, bitmaps waiting to be
+     * passed to a {@link Callback}, and bitmaps returned by
+     * {@link #loadSync(String)}, {@link LoadHandle#get()} or
+     * {@link #loadOnlyFromMemCache(String)} are never pooled. Do not enable
+     * the pool if bitmaps passed to a {@link Callback} are kept or displayed
+     * by other means, as they may be overwritten after they are evicted from
+     * the memory cache.
+     */
+    public void setBitmapPoolSize(long maxSize) {
+        mBitmapPool.setMaxSize(maxSize);
+    }
+
+    /**
+     * Sets the maximum number of bytes of fetched images waiting to be
+     * written to the disk cache in the background, which are held in the Java
+     * heap. Images fetched while the buffer is full are not written, unless
+     * the buffer is empty. Defaults to
+     * {@link #DEFAULT_DISK_WRITE_BUFFER_SIZE}. Does nothing without a disk
+     * cache.
+     */
+    public void setDiskWriteBufferSize(long maxSize) {
+        if (mDiskWriter != null) {
+            mDiskWriter.setMaxPendingBytes(maxSize);
+        }
+    }
+
+    /**
+     * Returns the size, hits, misses and pooled bytes of the bitmap pool.
+     */
+    public final String getBitmapPoolDebugStats() {
+        return mBitmapPool.toString();
+    }
+
+    /**
+     * Returns the number of bitmaps evicted from the memory cache that may
+     * still be referenced, and how often they were found again.
+     */
+    public final String getEvictedBitmapDebugStats() {
+        return mEvictedBitmaps.toString();
+    }
+
+    /**
+     * Sets the maximum number of bytes held by the memory cache of encoded
+     * images. Images whose bitmaps have been evicted from the memory cache
+     * are decoded from there instead of being read from disk or fetched
+     * again. Encoded images are typically ten times smaller than their
+     * bitmaps, so a small cache holds many images. The images are held in
+     * shared memory outside of the Java heap, so this size does not count
+     * against the heap limit of the application. Changing the size evicts all
+     * encoded images. {@code 0}, the default, disables the cache.
+     */
+    public void setEncodedCacheSize(long maxSize) {
+        mEncodedInMem.setMaxSize(maxSize);
+    }
+
+    /**
+     * Returns the size, hits, misses and evictions of the memory cache of
+     * encoded images.
+     */
+    public final String getEncodedCacheDebugStats() {
+        return mEncodedInMem.toString();
+    }
+
+    /**
+     * Marks a {@link Bitmap} as used, for example by a view or a callback
+     * waiting to be invoked, so that it is not reused.
+     */
+    void acquireBitmap(Bitmap bitmap) {
+        synchronized (mBitmapsInUse) {
+            int[] count = mBitmapsInUse.get(bitmap);
+            if (count == null) {
+                mBitmapsInUse.put(bitmap, new int[] { 1 });
+            } else {
+                count[0]++;
+            }
+        }
+    }
+
+    /**
+     * Reverses {@link #acquireBitmap(Bitmap)} once the {@link Bitmap} is no
+     * longer used.
+     */
+    void releaseBitmap(Bitmap bitmap) {
+        synchronized (mBitmapsInUse) {
+            int[] count = mBitmapsInUse.get(bitmap);
+            if (count != null && --count[0] == 0) {
+                mBitmapsInUse.remove(bitmap);
+            }
+        }
+    }
+
+    /**
+     * Puts an evicted {@link Bitmap} into {@link #mBitmapPool} unless it is in
+     * use. Bitmaps are acquired with the same lock held, so a {@link Bitmap}
+     * is never pooled after it has been acquired.
+     * 
+     * @return {@code true} if the {@link Bitmap} was pooled.
+     */
+    private boolean poolUnlessInUse(Bitmap bitmap) {
+        synchronized (mBitmapsInUse) {
+            return !mBitmapsInUse.containsKey(bitmap)
+                    && mBitmapPool.put(bitmap);
+        }
+    }
+
+    /**
+     * Sets the bounds within which the number of concurrent network fetches
+     * is adjusted. The network pool is shared by all {@link ImageLoader}s.
+     */
+    public static void setNetworkPoolSizeBounds(int minPoolSize,
+            int maxPoolSize) {
+        sNetworkPoolSizer.setBounds(minPoolSize, maxPoolSize);
+    }
+
+    /**
+     * Returns the current number of threads fetching images from the network.
+     */
+    public static int getNetworkPoolSize() {
+        return sNetworkPoolSizer.getPoolSize();
+    }
+
+    /**
+     * Returns the current size, bounds, latency and throughput of the network
+     * pool.
+     */
+    public static String getNetworkPoolDebugStats() {
+        return sNetworkPoolSizer.toString();
+    }
+
+    private URLStreamHandler getURLStreamHandler(String protocol) {
+        URLStreamHandlerFactory factory = mURLStreamHandlerFactory;
+        if (factory == null) {
+            return null;
+        }
+        HashMap<String, URLStreamHandler> handlers = mStreamHandlers;
+        synchronized (handlers) {
+            URLStreamHandler handler = handlers.get(protocol);
+            if (handler == null) {
+                handler = factory.createURLStreamHandler(protocol);
+                if (handler != null) {
+                    handlers.put(protocol, handler);
+                }
+            }
+            return handler;
+        }
+    }
+
+    /**
+     * Enqueues a request for the given URL, unless a request for the same URL
+     * is already in flight, in which case the callback is attached to the
+     * existing request and receives its result.
+     */
+    private LoadHandle enqueueRequest(String url, TargetSize size,
+            Callback callback, Executor callbackExecutor, boolean loadBitmap,
+            Priority priority) {
+        LoadHandle handle = new LoadHandle(url, LoadResult.LOADING, callback,
+                callbackExecutor, priority);
+        String key = cacheKey(url, size);
+        ImageRequest request;
+        synchronized (mPendingRequests) {
+            request = mPendingRequests.get(key);
+            if (request != null && request.attach(handle, loadBitmap)) {
+                return handle;
+            }
+            request = new ImageRequest(url, size, loadBitmap);
+            request.attach(handle, loadBitmap);
+            mPendingRequests.put(key, request);
+        }
+        request.start();
+        return handle;
+    }
+
+    /**
+     * Splits the given URLs into {@link BatchRequest}s of at most
+     * {@link #MAX_BATCH_SIZE} URLs and submits them to the disk stage.
+     * Duplicate and empty URLs are dropped.
+     */
+    private void enqueueBatch(Iterable<String> urls, TargetSize size,
+            boolean loadBitmap, Priority priority) {
+        LinkedHashSet<String> unique = new LinkedHashSet<String>();
+        for (String url : urls) {
+            if (!TextUtils.isEmpty(url)) {
+                unique.add(url);
+            }
+        }
+        if (unique.isEmpty()) {
+            return;
+        }
+        List<String> all = new ArrayList<String>(unique);
+        int count = all.size();
+        for (int start = 0; start < count; start += MAX_BATCH_SIZE) {
+            List<String> batch = all.subList(start,
+                    Math.min(count, start + MAX_BATCH_SIZE));
+            Stage.DISK.mExecutor.execute(new BatchRequest(batch, size,
+                    loadBitmap, priority));
+        }
+    }
+
+    /**
+     * Creates a {@link LoadHandle} for a load that completed without being
+     * enqueued, and delivers the result to the callback. A callback for the
+     * main thread runs before this method returns if it is called in the
+     * main thread, and is posted there otherwise.
+     */
+    private LoadHandle completeImmediately(String url, Callback callback,
+            Executor callbackExecutor, Priority priority, LoadResult loadResult,
+            Bitmap bitmap, Throwable error) {
+        LoadHandle handle = new LoadHandle(url, loadResult, callback,
+                callbackExecutor, priority);
+        LoadSource loadSource = bitmap != null ? LoadSource.CACHE_MEMORY
+                : null;
+        if (handle.complete(bitmap, loadSource, error)) {
+            if (Looper.myLooper() == Looper.getMainLooper()) {
+                handle.deliver();
+            } else {
+                sHandler.obtainMessage(MESSAGE_DELIVER_RESULT,
+                        Collections.singletonList(handle)).sendToTarget();
+            }
+        }
+        return handle;
+    }
+
+    /**
+     * Loads an image at the given URL.
+     * <p>
+     * If the image needs to be loaded asynchronously, it will be assigned at a
+     * later time. This method may be called from any thread; the callback is
+     * invoked in the main thread.
+     * 
+     * @param url
+     *            the image URL.
+     * @param callback
      *            invoked after the image has finished loading or after an
-     *            error. The callback may be executed before this method returns
-     *            when the result is cached. This parameter can be {@code null}
-     *            if a callback is not required.
-     * @return a {@link LoadResult}.
+     *            error. When the result is cached and this method is called in
+     *            the main thread, the callback is executed before this method
+     *            returns. This parameter can be {@code null} if a callback is
+     *            not required.
+     * @return a {@link LoadHandle} for retrieving the {@link LoadResult} and
+     *         cancelling the load.
      * @throws NullPointerException
      *             if a required argument is {@code null}
      */
-    public LoadResult load(String url, Callback callback) {
+    public LoadHandle load(String url, Callback callback) {
+        return load(url, callback, Priority.VISIBLE);
+    }
+
+    /**
+     * Loads an image at the given URL, sub-sampled to the given size.
+     * <p>
+     * Images loaded at different sizes are cached separately.
+     * 
+     * @param size
+     *            the size at which the image is displayed, or {@code null} to
+     *            load the image at full size.
+     * @see #load(String, Callback)
+     */
+    public LoadHandle load(String url, TargetSize size, Callback callback) {
+        return load(url, size, callback, Priority.VISIBLE, null);
+    }
+
+    /**
+     * Loads an image at the given URL with the given {@link Priority}.
+     * <p>
+     * If a request for the same URL is already queued with a less urgent
+     * priority, for example because it is being pre-fetched, that request is
+     * promoted.
+     * 
+     * @see #load(String, Callback)
+     */
+    public LoadHandle load(String url, Callback callback, Priority priority) {
+        return load(url, callback, priority, null);
+    }
+
+    /**
+     * Loads an image at the given URL with the given {@link Priority}, and
+     * invokes the callback with the given {@link Executor} instead of in the
+     * main thread.
+     * <p>
+     * Use {@link #DIRECT_EXECUTOR} to invoke the callback in the loader thread
+     * that completed the load. The callback may also be invoked by the calling
+     * thread before this method returns, when the result is cached.
+     * 
+     * @param callbackExecutor
+     *            the {@link Executor} invoking the callback, or {@code null}
+     *            to invoke it in the main thread.
+     * @see #load(String, Callback)
+     */
+    public LoadHandle load(String url, Callback callback, Priority priority,
+            Executor callbackExecutor) {
+        return load(url, null, callback, priority, callbackExecutor);
+    }
+
+    /**
+     * Loads an image at the given URL, sub-sampled to the given size, with
+     * the given {@link Priority} and callback {@link Executor}.
+     * 
+     * @see #load(String, TargetSize, Callback)
+     * @see #load(String, Callback, Priority, Executor)
+     */
+    public LoadHandle load(String url, TargetSize size, Callback callback,
+            Priority priority, Executor callbackExecutor) {
+        if (priority == null) {
+            throw new NullPointerException("Priority is null");
+        }
         if (url == null) {
             throw new NullPointerException("URL is null");
         }
-        Bitmap bitmap = getBitmapFromMemory(url);
+        size = supportedSize(size);
+        Bitmap bitmap = acquireBitmapFromMemory(cacheKey(url, size));
         ImageError error = getError(url);
         if (bitmap != null) {
-            if (callback != null) {
-                callback.onImageLoaded(bitmap, url, LoadSource.CACHE_MEMORY);
+            try {
+                return completeImmediately(url, callback, callbackExecutor,
+                        priority, LoadResult.OK, bitmap, null);
+            } finally {
+                releaseBitmap(bitmap);
             }
-            return LoadResult.OK;
         } else {
             if (error != null) {
-                if (callback != null) {
-                    callback.onImageError(url, error.getCause());
-                }
-                return LoadResult.ERROR;
+                return completeImmediately(url, callback, callbackExecutor,
+                        priority, LoadResult.ERROR, null, error.getCause());
             } else {
-                ImageRequest request = new ImageRequest(url, callback);
-                enqueueRequest(request);
-                return LoadResult.LOADING;
+                return enqueueRequest(url, size, callback, callbackExecutor,
+                        true, priority);
+            }
+        }
+    }
+
+    /**
+     * Loads an image at the given URL and waits for the result.
+     * <p>
+     * Use this method to load images in background threads, for example in
+     * app widgets or sync adapters. The load shares the pipeline, caches and
+     * in-flight requests with asynchronous loads.
+     * 
+     * @param url
+     *            the image URL.
+     * @return the loaded {@link Bitmap}.
+     * @throws IOException
+     *             if the image could not be loaded.
+     * @throws InterruptedException
+     *             if the calling thread was interrupted while waiting. The
+     *             load is cancelled.
+     * @throws RuntimeException
+     *             if called in the main thread.
+     */
+    public Bitmap loadSync(String url) throws IOException,
+            InterruptedException {
+        return loadSync(url, null);
+    }
+
+    /**
+     * Loads an image at the given URL, sub-sampled to the given size, and
+     * waits for the result.
+     * 
+     * @see #loadSync(String)
+     * @see #load(String, TargetSize, Callback)
+     */
+    public Bitmap loadSync(String url, TargetSize size) throws IOException,
+            InterruptedException {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            throw new RuntimeException("Must not be called in the main thread.");
+        }
+        LoadHandle handle = load(url, size, null, Priority.VISIBLE,
+                DIRECT_EXECUTOR);
+        try {
+            return handle.get();
+        } catch (InterruptedException e) {
+            handle.cancel();
+            throw e;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
             }
+            IOException exception = new IOException("Failed to load " + url);
+            exception.initCause(cause);
+            throw exception;
         }
     }
 
@@ -461,15 +1500,39 @@ public final class ImageLoader {
      * scheduled remote fetch of the image if it does not already exist in the
      * cache. This is typically best called when the user is fast scrolling
      * (fling) through a list of {@link ImageView}s.
+     * <p>
+     * The returned {@link Bitmap} is never reused by the bitmap pool, since it
+     * may be kept indefinitely.
      * 
      * @param url
      * @return a {@link Bitmap} already held in cache
      */
     public Bitmap loadOnlyFromMemCache(String url) {
+        return loadOnlyFromMemCache(url, null);
+    }
+
+    /**
+     * Loads an image at the given URL and size only if it already exists in
+     * the cache.
+     * 
+     * @see #loadOnlyFromMemCache(String)
+     */
+    public Bitmap loadOnlyFromMemCache(String url, TargetSize size) {
+        // Never released.
+        return acquireFromMemCache(url, size);
+    }
+
+    /**
+     * Returns the {@link Bitmap} like
+     * {@link #loadOnlyFromMemCache(String, TargetSize)}, acquired with
+     * {@link #acquireBitmap(Bitmap)}. The caller must release it, so that a
+     * view binder holds the only reference while it shows the {@link Bitmap}.
+     */
+    Bitmap acquireFromMemCache(String url, TargetSize size) {
         if (url == null) {
             throw new NullPointerException("URL is null");
         }
-        return getBitmapFromMemory(url);
+        return acquireBitmapFromMemory(cacheKey(url, supportedSize(size)));
     }
 
     /**
@@ -496,29 +1559,78 @@ public final class ImageLoader {
     public void clearMemCache() {
         mBitmapsInMem.evictAll();
         mBitmapsInMem.clearStats();
+        mEvictedBitmaps.clear();
+        mEvictedBitmaps.clearStats();
+        mBitmapPool.evictAll();
+        mBitmapPool.clearStats();
+        mEncodedInMem.evictAll();
+        mEncodedInMem.clearStats();
     }
 
     /**
-     * Decrease the memory cache max size.
+     * Decrease the memory cache max size after running out of Java heap. The
+     * memory cache of encoded images is left alone, since it is not in the
+     * heap.
      */
     private void decreaseMemCacheSize() {
-        mBitmapsInMem.setMaxSize((int) (mBitmapsInMem.maxSize() * 0.7f));
+        mBitmapsInMem.setMaxSize((long) (mBitmapsInMem.maxSize() * 0.7f));
+        mBitmapPool.evictAll();
+        if (mDiskWriter != null) {
+            mDiskWriter.trim();
+        }
+    }
+
+    /**
+     * Lets the loader respond to memory pressure. Call this from
+     * {@link android.content.ComponentCallbacks2#onTrimMemory(int)}.
+     * <p>
+     * Pending disk writes are dropped if the application is running and
+     * memory is critically low. Otherwise they are written right away, since
+     * the process may be killed soon. The shared memory holding encoded images
+     * is given back to the system when memory is critically low or the
+     * process is about to be killed.
+     */
+    public void onTrimMemory(int level) {
+        boolean runningCritical = level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL
+                && level < ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN;
+        if (runningCritical
+                || level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE) {
+            mEncodedInMem.releaseMemory();
+        }
+        if (mDiskWriter == null) {
+            return;
+        }
+        if (runningCritical) {
+            mDiskWriter.trim();
+        } else {
+            mDiskWriter.flush();
+        }
+    }
+
+    /**
+     * Writes images waiting to be put into the disk cache without further
+     * delay. Call this before the application is shut down or moved to the
+     * background. Does not wait for the writes to finish.
+     */
+    public void flushDiskCache() {
+        if (mDiskWriter != null) {
+            mDiskWriter.flush();
+        }
     }
 
     /**
-     * Clears the disk cache if it is present.
+     * Clears the disk cache if it is present, and the memory cache of encoded
+     * images. The disk cache is empty as soon as this method returns, and the
+     * files are deleted in the background.
      */
     public void clearDiskCache() {
+        // Encoded images are copies of disk cache entries.
+        mEncodedInMem.evictAll();
         if (mBitmapsInDisk != null) {
-            try {
-                mBitmapsInDisk.delete();
-                mBitmapsInDisk = DiskLruCache.open(
-                        mBitmapsInDisk.getDirectory(), APP_VERSION, 1,
-                        mBitmapsInDisk.getMaxSize());
-            } catch (IOException e) {
-                Log.e(LOG_TAG, "Failed to clear disk cache.", e);
-            } catch (Exception e) {
-                Log.e(LOG_TAG, "Failed to clear disk cache.", e);
+            mDiskWriter.clear();
+            for (DiskCache tier = mBitmapsInDisk; tier != null; tier = tier
+                    .getNextTier()) {
+                tier.clear();
             }
         }
     }
@@ -531,25 +1643,44 @@ public final class ImageLoader {
      * 
      * @param url
      *            the image URL
+     * @return a {@link LoadHandle} that can be used to cancel the pre-load.
      * @throws NullPointerException
      *             if the URL is {@code null}
      */
-    public void preload(String url) {
+    public LoadHandle preload(String url) {
+        return preload(url, null);
+    }
+
+    /**
+     * Pre-loads an image into memory, sub-sampled to the given size.
+     * 
+     * @see #preload(String)
+     * @see #load(String, TargetSize, Callback)
+     */
+    public LoadHandle preload(String url, TargetSize size) {
         if (url == null) {
             throw new NullPointerException();
         }
-        if (null != getBitmapFromMemory(url)) {
-            // The image is already loaded
-            return;
+        size = supportedSize(size);
+        String key = cacheKey(url, size);
+        Bitmap bitmap = getBitmapFromMemory(key);
+        if (null != bitmap) {
+            // The image is already loaded, and kept in memory if it had been
+            // evicted.
+            promoteEvictedBitmap(key, bitmap);
+            return completeImmediately(url, null, null, Priority.PRELOAD,
+                    LoadResult.OK, bitmap, null);
         }
-        if (null != getError(url)) {
+        ImageError error = getError(url);
+        if (null != error) {
             // A recent attempt to load the image failed,
             // therefore this attempt is likely to fail as well.
-            return;
+            return completeImmediately(url, null, null, Priority.PRELOAD,
+                    LoadResult.ERROR, null, error.getCause());
         }
         boolean loadBitmap = true;
-        ImageRequest task = new ImageRequest(url, loadBitmap);
-        enqueueRequest(task);
+        return enqueueRequest(url, size, null, null, loadBitmap,
+                Priority.PRELOAD);
     }
 
     /**
@@ -573,17 +1704,48 @@ public final class ImageLoader {
      * @param end
      *            the first position not to load. For example,
      *            {@code selectedPosition + 5}.
-     * @see #preload(String)
+     * @see #preload(Iterable)
      */
     public void preload(Cursor cursor, int columnIndex, int start, int end) {
+        List<String> urls = new ArrayList<String>(Math.max(0, end - start));
         for (int position = start; position < end; position++) {
             if (cursor.moveToPosition(position)) {
-                String url = cursor.getString(columnIndex);
-                if (!TextUtils.isEmpty(url)) {
-                    preload(url);
-                }
+                urls.add(cursor.getString(columnIndex));
             }
         }
+        preload(urls);
+    }
+
+    /**
+     * Pre-loads many images into memory at once.
+     * <p>
+     * Duplicate URLs are ignored. The URLs are checked against the memory
+     * cache, the disk cache and recent errors in the background, and only the
+     * URLs that still need to be loaded are queued. Unlike
+     * {@link #preload(String)}, the pre-loads cannot be cancelled.
+     * 
+     * @param urls
+     *            the image URLs. {@code null} and empty URLs are ignored.
+     * @throws NullPointerException
+     *             if {@code urls} is {@code null}
+     * @see #preload(String)
+     */
+    public void preload(Iterable<String> urls) {
+        preload(urls, null);
+    }
+
+    /**
+     * Pre-loads many images into memory at once, sub-sampled to the given
+     * size.
+     * 
+     * @see #preload(Iterable)
+     * @see #load(String, TargetSize, Callback)
+     */
+    public void preload(Iterable<String> urls, TargetSize size) {
+        if (urls == null) {
+            throw new NullPointerException();
+        }
+        enqueueBatch(urls, supportedSize(size), true, Priority.PRELOAD);
     }
 
     /**
@@ -614,8 +1776,7 @@ public final class ImageLoader {
             return;
         }
         boolean loadBitmap = false;
-        ImageRequest request = new ImageRequest(url, loadBitmap);
-        enqueueRequest(request);
+        enqueueRequest(url, null, null, null, loadBitmap, Priority.PREFETCH);
     }
 
     /**
@@ -635,75 +1796,260 @@ public final class ImageLoader {
      * @param columnIndex
      *            the column index of the image URL. The column value may be
      *            {@code NULL}.
-     * @see #prefetch(String)
+     * @see #prefetch(Iterable)
      */
     public void prefetch(Cursor cursor, int columnIndex) {
+        List<String> urls = new ArrayList<String>(Math.max(0,
+                cursor.getCount()));
         for (int position = 0; cursor.moveToPosition(position); position++) {
-            String url = cursor.getString(columnIndex);
-            if (!TextUtils.isEmpty(url)) {
-                prefetch(url);
-            }
+            urls.add(cursor.getString(columnIndex));
         }
+        prefetch(urls);
     }
 
-    private static String urlToKey(String url) {
-        return Integer.toHexString(url.hashCode());
+    /**
+     * Pre-fetches the binary content for many images at once, without loading
+     * the image data into memory.
+     * <p>
+     * Duplicate URLs are ignored. The URLs are checked against the memory
+     * cache, the disk cache and recent errors in the background, and only the
+     * URLs that still need to be fetched are queued.
+     * 
+     * @param urls
+     *            the URLs to pre-fetch. {@code null} and empty URLs are
+     *            ignored.
+     * @throws NullPointerException
+     *             if {@code urls} is {@code null}
+     * @see #prefetch(String)
+     */
+    public void prefetch(Iterable<String> urls) {
+        if (urls == null) {
+            throw new NullPointerException();
+        }
+        enqueueBatch(urls, null, false, Priority.PREFETCH);
     }
 
-    private void putBitmapInMemory(String url, Bitmap bitmap) {
-        mBitmapsInMem.put(urlToKey(url), bitmap);
-    }
+    /**
+     * Returns the size at which images requested at the given size are
+     * loaded and cached. Only {@link BitmapContentHandler} itself decodes at
+     * a {@link TargetSize}; any other {@link ContentHandler} returns images at
+     * full size, which must not be cached as sub-sampled images.
+     */
+    private TargetSize supportedSize(TargetSize size) {
+        return mBitmapContentHandler.getClass() == BitmapContentHandler.class ? size
+                : null;
+    }
+
+    /**
+     * Returns the key under which the image at the given URL is cached when
+     * loaded at the given size.
+     */
+    private static String cacheKey(String url, TargetSize size) {
+        return size == null ? url : url + "#" + size;
+    }
+
+    private static String urlToKey(String url) {
+        return Integer.toHexString(url.hashCode());
+    }
+
+    /**
+     * @param cost
+     *            the time it took to load the bitmap in milliseconds, used by
+     *            {@link StripedLruCache.Policy#COST_AWARE}.
+     */
+    private void putBitmapInMemory(String key, Bitmap bitmap, long cost) {
+        String cacheKey = urlToKey(key);
+        mEvictedBitmaps.remove(cacheKey);
+        mBitmapsInMem.put(cacheKey, bitmap, Math.max(1, cost));
+    }
 
     private void putError(String url, ImageError error) {
         mErrors.put(url, error);
     }
 
-    private Bitmap getBitmapFromMemory(String url) {
-        return mBitmapsInMem.get(urlToKey(url));
+    /**
+     * Returns the cached bitmap, or the bitmap evicted from the cache if it is
+     * still referenced. An evicted bitmap is not added back to the cache, so
+     * this is meant for checking whether a bitmap is in memory. Bitmaps that
+     * are used are looked up with {@link #acquireBitmapFromMemory(String)}.
+     */
+    private Bitmap getBitmapFromMemory(String key) {
+        String cacheKey = urlToKey(key);
+        Bitmap bitmap = mBitmapsInMem.get(cacheKey);
+        if (bitmap == null) {
+            bitmap = mEvictedBitmaps.get(cacheKey);
+            if (bitmap != null && bitmap.isRecycled()) {
+                mEvictedBitmaps.remove(cacheKey);
+                bitmap = null;
+            }
+        }
+        return bitmap;
+    }
+
+    /**
+     * Returns the bitmap like {@link #getBitmapFromMemory(String)}, acquired
+     * with {@link #acquireBitmap(Bitmap)} before it can be evicted and pooled
+     * by another thread. The caller must release it.
+     */
+    private Bitmap acquireBitmapFromMemory(String key) {
+        Bitmap bitmap;
+        if (!mBitmapPool.isEnabled()) {
+            // Nothing is overwritten, so the lookup need not be atomic.
+            bitmap = getBitmapFromMemory(key);
+            if (bitmap != null) {
+                acquireBitmap(bitmap);
+            }
+        } else {
+            synchronized (mBitmapsInUse) {
+                bitmap = getBitmapFromMemory(key);
+                if (bitmap != null) {
+                    acquireBitmap(bitmap);
+                }
+            }
+        }
+        if (bitmap != null) {
+            promoteEvictedBitmap(key, bitmap);
+        }
+        return bitmap;
     }
 
+    /**
+     * Moves a bitmap found among the evicted bitmaps back into the memory
+     * cache, since it is used again and would otherwise be lost once nothing
+     * else references it. Must not be called with the lock of
+     * {@link #mBitmapsInUse} held, since adding to the cache may evict other
+     * bitmaps into the pool.
+     */
+    private void promoteEvictedBitmap(String key, Bitmap bitmap) {
+        String cacheKey = urlToKey(key);
+        if (!mBitmapsInMem.containsKey(cacheKey)) {
+            mEvictedBitmaps.remove(cacheKey);
+            mBitmapsInMem.put(cacheKey, bitmap);
+        }
+    }
+
+    /**
+     * Schedules the encoded image of the given URL to be written to the disk
+     * cache.
+     * 
+     * @param metadata
+     *            the HTTP caching headers of the image, or {@code null}.
+     */
+    private void putOnDisk(String url, byte[] encoded,
+            HttpCacheMetadata metadata) {
+        if (mDiskWriter != null) {
+            mDiskWriter.write(urlToKey(url), encoded,
+                    metadata != null ? metadata.format() : null);
+        }
+    }
+
+    /**
+     * Schedules a {@link Bitmap} loaded by a custom {@link ContentHandler} to
+     * be written to the disk cache as a PNG, since its original bytes are not
+     * available.
+     */
     private void putBitmapOnDisk(String url, Bitmap bitmap) {
-        if (mBitmapsInDisk != null && mBitmapConverter != null) {
-            Editor editor = null;
-            OutputStream out = null;
+        if (mDiskWriter != null) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            if (bitmap.compress(Bitmap.CompressFormat.PNG, 100, out)) {
+                putOnDisk(url, out.toByteArray(), null);
+            }
+        }
+    }
+
+    /**
+     * Replaces the HTTP caching headers of an image in the disk cache after
+     * it has been revalidated.
+     */
+    private void updateMetadataOnDisk(String url, HttpCacheMetadata metadata) {
+        if (mBitmapsInDisk != null) {
             try {
-                editor = mBitmapsInDisk.edit(urlToKey(url));
-                if (editor != null) {
-                    out = editor.newOutputStream(0);
-                    mBitmapConverter.toStream(bitmap, out);
-                    editor.commit();
-                }
+                mBitmapsInDisk.updateMetadata(urlToKey(url), metadata.format());
             } catch (IOException e) {
-                Log.w(LOG_TAG, "Failed to put Bitmap on disk.", e);
+                Log.w(LOG_TAG, "Failed to update Bitmap on disk.", e);
             } catch (Exception e) {
-                Log.w(LOG_TAG, "Failed to put Bitmap on disk.", e);
-            } finally {
-                IOUtils.closeQuietly(out);
-                quietlyAbortUnlessCommitted(editor);
+                Log.w(LOG_TAG, "Failed to update Bitmap on disk.", e);
             }
         }
     }
 
-    private static void quietlyAbortUnlessCommitted(DiskLruCache.Editor editor) {
-        // Give up because the cache cannot be written.
-        try {
-            if (editor != null) {
-                editor.abortUnlessCommitted();
+    private void removeFromDisk(String url) {
+        if (mBitmapsInDisk != null) {
+            mDiskWriter.remove(urlToKey(url));
+            try {
+                mBitmapsInDisk.remove(urlToKey(url));
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Failed to remove Bitmap from disk.", e);
+            } catch (Exception e) {
+                Log.w(LOG_TAG, "Failed to remove Bitmap from disk.", e);
             }
-        } catch (Exception ignored) {
         }
     }
 
-    private Bitmap getBitmapFromDisk(String url) {
-        if (mBitmapsInDisk != null && mBitmapConverter != null) {
+    /**
+     * Returns the encoded image from the memory cache of encoded images.
+     * 
+     * @return the encoded image, or {@code null} if it is not cached.
+     */
+    private EncodedImage getEncodedImageFromMemory(String url) {
+        EncodedMemoryCache.Entry entry = mEncodedInMem.get(urlToKey(url));
+        if (entry == null || !entry.acquire()) {
+            return null;
+        }
+        EncodedImage image = new MemoryImage(entry);
+        image.mMetadata = HttpCacheMetadata.parse(entry.getMetadata());
+        return image;
+    }
+
+    /**
+     * Opens the encoded image in the disk cache. The cache file is kept open
+     * so that it can be decoded from its file descriptor by the decode stage,
+     * unless it is copied into the memory cache of encoded images or too many
+     * files are open already, in which case it is opened again by the decode
+     * stage. Images waiting to be written to the disk cache are read from
+     * memory.
+     * 
+     * @return the encoded image, which must be closed, or {@code null} if it
+     *         is not on disk.
+     */
+    private EncodedImage getImageFromDisk(String url) {
+        if (mBitmapsInDisk != null) {
+            byte[] pending = mDiskWriter.get(urlToKey(url));
+            if (pending != null) {
+                return new ByteArrayImage(pending);
+            }
             Snapshot snapshot = null;
             InputStream in = null;
             try {
                 snapshot = mBitmapsInDisk.get(urlToKey(url));
                 if (snapshot != null) {
-                    in = snapshot.getInputStream(0);
-                    byte[] bytes = IOUtils.toByteArray(in);
-                    return mBitmapConverter.from(bytes);
+                    HttpCacheMetadata metadata = HttpCacheMetadata
+                            .parse(DiskCache.getMetadata(snapshot));
+                    EncodedImage image;
+                    in = DiskCache.getData(snapshot);
+                    EncodedMemoryCache.Entry entry = null;
+                    if (in instanceof FileInputStream
+                            && mEncodedInMem.isEnabled()) {
+                        entry = mEncodedInMem.put(urlToKey(url),
+                                (FileInputStream) in,
+                                DiskCache.getMetadata(snapshot));
+                    }
+                    if (entry != null && entry.acquire()) {
+                        image = new MemoryImage(entry);
+                    } else if (in instanceof FileInputStream
+                            && mOpenSnapshots.get() < MAX_WAITING_SNAPSHOTS) {
+                        image = new SnapshotImage(snapshot,
+                                (FileInputStream) in, mOpenSnapshots);
+                        snapshot = null;
+                        in = null;
+                    } else if (in instanceof FileInputStream) {
+                        image = new SnapshotImage(mBitmapsInDisk,
+                                urlToKey(url), mOpenSnapshots);
+                    } else {
+                        image = new ByteArrayImage(IOUtils.toByteArray(in));
+                    }
+                    image.mMetadata = metadata;
+                    return image;
                 }
             } catch (IOException e) {
                 Log.w(LOG_TAG, "Failed to get Bitmap from disk.", e);
@@ -717,6 +2063,36 @@ public final class ImageLoader {
         return null;
     }
 
+    /**
+     * Returns {@code false} if the disk cache definitely holds no entry for
+     * the given URL. Does not block.
+     */
+    private boolean mayBeOnDisk(String url) {
+        if (mBitmapsInDisk == null) {
+            return false;
+        }
+        String key = urlToKey(url);
+        return mDiskWriter.get(key) != null || mBitmapsInDisk.mightContain(key);
+    }
+
+    /**
+     * Returns {@code true} if the disk cache holds an entry for the given URL.
+     * The entry is not read.
+     */
+    private boolean isOnDisk(String url) {
+        if (mBitmapsInDisk != null) {
+            if (mDiskWriter.get(urlToKey(url)) != null) {
+                return true;
+            }
+            try {
+                return mBitmapsInDisk.contains(urlToKey(url));
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Failed to look up Bitmap on disk.", e);
+            }
+        }
+        return false;
+    }
+
     private ImageError getError(String url) {
         ImageError error = mErrors.get(url);
         return error != null && !error.isExpired() ? error : null;
@@ -730,173 +2106,1070 @@ public final class ImageLoader {
         return getError(url) != null;
     }
 
-    private class ImageRequest {
+    /**
+     * The stages of the loading pipeline. Each stage has its own bounded pool
+     * so that, for example, disk cache hits are not stuck behind slow network
+     * fetches. Within a pool, requests are taken in {@link Priority} order,
+     * and in LIFO order within the same priority.
+     */
+    private enum Stage {
+        /**
+         * Re-checks the memory cache and reads the disk cache.
+         */
+        DISK("disk", DISK_POOL_SIZE),
+        /**
+         * Fetches the image from its URL.
+         */
+        NETWORK("network", NETWORK_POOL_SIZE),
+        /**
+         * Decodes the fetched bytes into a {@link Bitmap}.
+         */
+        DECODE("decode", DECODE_POOL_SIZE);
+
+        private final PriorityBlockingStack<Runnable> mQueue;
+
+        private final ThreadPoolExecutor mExecutor;
+
+        private Stage(String name, int poolSize) {
+            mQueue = new PriorityBlockingStack<Runnable>(
+                    Priority.values().length);
+            mExecutor = new ThreadPoolExecutor(poolSize, poolSize, KEEP_ALIVE,
+                    TimeUnit.SECONDS, mQueue, new StageThreadFactory(name,
+                            Process.THREAD_PRIORITY_BACKGROUND));
+        }
+    }
+
+    private static class StageThreadFactory implements ThreadFactory {
+        private final AtomicInteger mCount = new AtomicInteger(1);
 
-        private final Callback mCallback;
+        private final String mName;
+
+        private final int mPriority;
+
+        /**
+         * @param priority
+         *            the priority of the threads, as passed to
+         *            {@link Process#setThreadPriority(int)}.
+         */
+        public StageThreadFactory(String name, int priority) {
+            mName = name;
+            mPriority = priority;
+        }
+
+        public Thread newThread(final Runnable r) {
+            return new Thread(new Runnable() {
+                public void run() {
+                    Process.setThreadPriority(mPriority);
+                    r.run();
+                }
+            }, "ImageLoader " + mName + " #" + mCount.getAndIncrement());
+        }
+    }
+
+    private static class UrgentTask implements Runnable, Prioritized {
+
+        private final Runnable mTask;
+
+        public UrgentTask(Runnable task) {
+            mTask = task;
+        }
+
+        @Override
+        public int getPriority() {
+            return 0;
+        }
+
+        @Override
+        public void run() {
+            mTask.run();
+        }
+    }
+
+    private static class ResultHandler extends Handler {
+
+        public ResultHandler() {
+            super(Looper.getMainLooper());
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void handleMessage(Message msg) {
+            switch (msg.what) {
+            case MESSAGE_DELIVER_RESULT:
+                for (LoadHandle handle : (List<LoadHandle>) msg.obj) {
+                    handle.deliver();
+                }
+                break;
+            }
+        }
+    }
+
+    /**
+     * A request that moves through the {@link Stage}s of the pipeline. The
+     * request itself is the {@link Runnable} queued in the pool of its current
+     * stage.
+     */
+    private class ImageRequest implements Runnable, Prioritized {
+
+        /**
+         * The handles waiting for the result of this request. Guarded by
+         * {@link ImageLoader#mPendingRequests}.
+         */
+        private final List<LoadHandle> mHandles;
+
+        /**
+         * Signals the worker to abort once nobody is waiting for the result.
+         */
+        private final CancellationSignal mCancellationSignal;
+
+        /**
+         * The stage that runs next, or is running.
+         */
+        private volatile Stage mStage;
+
+        /**
+         * The most urgent {@link Priority} among the attached handles and
+         * batches.
+         */
+        private volatile Priority mPriority;
+
+        /**
+         * The most urgent {@link Priority} among the {@link BatchRequest}s
+         * waiting for this request, or {@code null} if there are none. Batches
+         * cannot be cancelled, so they keep the request alive. Guarded by
+         * {@link ImageLoader#mPendingRequests}.
+         */
+        private Priority mBatchPriority;
 
         private final String mUrl;
 
-        private final boolean mLoadBitmap;
+        /**
+         * The size to decode at, or {@code null} for the full size.
+         */
+        private final TargetSize mSize;
+
+        /**
+         * The key of the request in {@link ImageLoader#mPendingRequests} and
+         * in the caches.
+         */
+        private final String mKey;
+
+        /**
+         * Whether a {@link Bitmap} should be loaded into memory, or the URL
+         * should only be pre-fetched. Guarded by {@code this}.
+         */
+        private boolean mLoadBitmap;
+
+        /**
+         * Set once a stage has decided whether to load a {@link Bitmap}, after
+         * which a pre-fetch can no longer be upgraded. Guarded by {@code this}.
+         */
+        private boolean mLoadBitmapDecided;
+
+        /**
+         * The encoded image handed from the disk or network stage to the
+         * decode stage. Closed by the decode stage, or when the request is
+         * cancelled before the decode stage runs.
+         */
+        private EncodedImage mEncoded;
 
         private Bitmap mBitmap;
 
+        /**
+         * Whether {@link #mBitmap} has been acquired, so that it is not pooled
+         * before it has been handed to the attached handles.
+         */
+        private boolean mBitmapAcquired;
+
         private ImageError mError;
 
         private LoadSource mLoadSource;
 
-        private ImageRequest(String url, Callback callback, boolean loadBitmap) {
+        /**
+         * The time spent running the previous stages, and the time the current
+         * stage started or {@code 0} between stages, used as the cost of
+         * recreating the {@link Bitmap} once it is evicted from memory. The
+         * time of a stage is added before the request is handed to the next
+         * stage, whose thread may start running it right away, so only one
+         * thread writes these at a time.
+         */
+        private volatile long mWorkMillis;
+
+        private volatile long mStageStartMillis;
+
+        /**
+         * Creates an {@link ImageRequest} to load a {@link Bitmap} for an
+         * {@link ImageView}, or only to prime the cache.
+         */
+        public ImageRequest(String url, TargetSize size, boolean loadBitmap) {
             mUrl = url;
-            mCallback = callback;
+            mSize = size;
+            mKey = cacheKey(url, size);
+            mHandles = new ArrayList<LoadHandle>(1);
+            mCancellationSignal = new CancellationSignal();
             mLoadBitmap = loadBitmap;
             mLoadSource = LoadSource.EXTERNAL;
         }
 
         /**
-         * Creates an {@link ImageTask} to load a {@link Bitmap} for an
-         * {@link ImageView}.
+         * Attaches another caller to this in-flight request.
+         * 
+         * @return {@code false} if the request is a pre-fetch that can no
+         *         longer be upgraded to load a {@link Bitmap}, in which case a
+         *         new request must be made.
          */
-        public ImageRequest(String url, Callback callback) {
-            this(url, callback, true);
+        public boolean attach(LoadHandle handle, boolean loadBitmap) {
+            if (!upgrade(loadBitmap)) {
+                return false;
+            }
+            synchronized (handle) {
+                handle.mRequest = this;
+            }
+            mHandles.add(handle);
+            updatePriority();
+            return true;
         }
 
         /**
-         * Creates an {@link ImageTask} to prime the cache.
+         * Attaches a {@link BatchRequest} to this in-flight request.
+         * 
+         * @return {@code false} if a new request must be made.
+         * @see #attach(LoadHandle, boolean)
          */
-        public ImageRequest(String url, boolean loadBitmap) {
-            this(url, null, loadBitmap);
+        public boolean attachBatch(boolean loadBitmap, Priority priority) {
+            if (!upgrade(loadBitmap)) {
+                return false;
+            }
+            if (mBatchPriority == null
+                    || priority.compareTo(mBatchPriority) < 0) {
+                mBatchPriority = priority;
+            }
+            updatePriority();
+            return true;
         }
 
-        private Bitmap loadImage(URL url) throws IOException {
-            URLConnection connection = url.openConnection();
-            return (Bitmap) mBitmapContentHandler.getContent(connection);
+        private synchronized boolean upgrade(boolean loadBitmap) {
+            if (loadBitmap && !mLoadBitmap) {
+                if (mLoadBitmapDecided) {
+                    return false;
+                }
+                mLoadBitmap = true;
+            }
+            return true;
         }
 
         /**
-         * Executes the {@link ImageTask}.
-         * 
-         * @return {@code true} if the result for this {@link ImageTask} should
-         *         be posted, {@code false} otherwise.
+         * Detaches a cancelled caller, cancelling the request itself when no
+         * callers remain.
+         */
+        public void detach(LoadHandle handle) {
+            synchronized (mPendingRequests) {
+                mHandles.remove(handle);
+                if (mHandles.isEmpty() && mBatchPriority == null) {
+                    cancel();
+                } else {
+                    updatePriority();
+                }
+            }
+        }
+
+        private void updatePriority() {
+            Priority priority = mBatchPriority != null ? mBatchPriority
+                    : Priority.PREFETCH;
+            for (LoadHandle handle : mHandles) {
+                if (handle.mPriority.compareTo(priority) < 0) {
+                    priority = handle.mPriority;
+                }
+            }
+            if (priority != mPriority) {
+                mPriority = priority;
+                Stage stage = mStage;
+                if (stage != null) {
+                    stage.mQueue.reprioritize(this);
+                }
+            }
+        }
+
+        private void cancel() {
+            if (mPendingRequests.get(mKey) == this) {
+                mPendingRequests.remove(mKey);
+            }
+            mCancellationSignal.cancel();
+            Stage stage = mStage;
+            if (stage != null && stage.mExecutor.remove(this)) {
+                // The request will not run again.
+                releaseEncoded();
+            }
+        }
+
+        private void releaseEncoded() {
+            IOUtils.closeQuietly(mEncoded);
+            mEncoded = null;
+        }
+
+        private boolean isCancelled() {
+            return mCancellationSignal.isCanceled();
+        }
+
+        private synchronized boolean decideLoadBitmap() {
+            mLoadBitmapDecided = true;
+            return mLoadBitmap;
+        }
+
+        @Override
+        public int getPriority() {
+            return mPriority.ordinal();
+        }
+
+        /**
+         * Submits the request to the disk stage, or straight to the network
+         * stage if the encoded image is neither in memory nor on disk.
+         */
+        public void start() {
+            if (getError(mUrl) == null
+                    && !mEncodedInMem.contains(urlToKey(mUrl))
+                    && !mayBeOnDisk(mUrl)) {
+                submit(Stage.NETWORK);
+            } else {
+                submit(Stage.DISK);
+            }
+        }
+
+        /**
+         * Hands this request to the pool of the given stage.
          */
-        public boolean execute() {
+        public void submit(Stage stage) {
+            long start = mStageStartMillis;
+            if (start != 0) {
+                mWorkMillis += SystemClock.elapsedRealtime() - start;
+                mStageStartMillis = 0;
+            }
+            mStage = stage;
+            stage.mExecutor.execute(this);
+        }
+
+        /**
+         * Returns the time spent running the stages so far, including the
+         * running stage.
+         */
+        private long getWorkMillis() {
+            long start = mStageStartMillis;
+            return mWorkMillis
+                    + (start != 0 ? SystemClock.elapsedRealtime() - start : 0);
+        }
+
+        @Override
+        public void run() {
+            if (isCancelled()) {
+                releaseEncoded();
+                return;
+            }
+            mStageStartMillis = SystemClock.elapsedRealtime();
+            try {
+                switch (mStage) {
+                case DISK:
+                    runDiskStage();
+                    break;
+                case NETWORK:
+                    runNetworkStage();
+                    break;
+                case DECODE:
+                    runDecodeStage();
+                    break;
+                }
+            } catch (IOException e) {
+                if (!isCancelled()) {
+                    fail(e);
+                }
+            } catch (RuntimeException e) {
+                fail(e);
+            } catch (Error e) {
+                fail(e);
+            }
+        }
+
+        private void runDiskStage() {
+            // Check if the last attempt to load the URL had an error
+            mError = getError(mUrl);
+            if (mError != null) {
+                finish();
+                return;
+            }
+
+            // Check if the Bitmap is already cached in memory
+            try {
+                mBitmap = acquireBitmapFromMemory(mKey);
+            } catch (OutOfMemoryError e) {
+                decreaseMemCacheSize();
+                System.gc();
+                mBitmap = acquireBitmapFromMemory(mKey);
+            }
+            if (mBitmap != null) {
+                mBitmapAcquired = true;
+                // Keep a hard reference until the view has been notified.
+                mLoadSource = LoadSource.CACHE_MEMORY;
+                finish();
+                return;
+            }
+
+            if (isCancelled()) {
+                return;
+            }
+
+            // Check if the encoded image is cached in memory or on disk
+            EncodedImage encoded = getEncodedImageFromMemory(mUrl);
+            if (encoded == null) {
+                encoded = getImageFromDisk(mUrl);
+            }
+            if (encoded != null) {
+                if (decideLoadBitmap()) {
+                    mEncoded = encoded;
+                    mLoadSource = LoadSource.CACHE_DISK;
+                    // An expired image is revalidated first, and is still
+                    // used if the server cannot be reached.
+                    boolean revalidate = !encoded.isFresh()
+                            && mBitmapContentHandler.getClass() == BitmapContentHandler.class;
+                    submit(revalidate ? Stage.NETWORK : Stage.DECODE);
+                } else {
+                    // Already cached, nothing to pre-fetch.
+                    IOUtils.closeQuietly(encoded);
+                    finish();
+                }
+                return;
+            }
+
+            submit(Stage.NETWORK);
+        }
+
+        private void runNetworkStage() throws IOException {
+            long start = SystemClock.elapsedRealtime();
+            long bytes = 0;
             try {
-                // Check if the last attempt to load the URL had an error
-                mError = getError(mUrl);
-                if (mError != null) {
-                    return true;
+                bytes = fetch();
+            } finally {
+                sNetworkPoolSizer.onTaskCompleted(SystemClock.elapsedRealtime()
+                        - start, bytes);
+            }
+        }
+
+        /**
+         * @return the number of bytes fetched, or {@code 0} if unknown.
+         */
+        private long fetch() throws IOException {
+            String protocol = getProtocol(mUrl);
+            URLStreamHandler streamHandler = getURLStreamHandler(protocol);
+            URL url = new URL(null, mUrl, streamHandler);
+
+            if (!decideLoadBitmap()) {
+                if (mPrefetchContentHandler != null) {
+                    // Cache the URL without loading a Bitmap into memory.
+                    URLConnection connection = url.openConnection();
+                    mPrefetchContentHandler.getContent(connection);
                 }
+                finish();
+                return 0;
+            }
 
-                // Check if the Bitmap is already cached in memory
+            if (mBitmapContentHandler.getClass() == BitmapContentHandler.class) {
+                // Only fetch here, and leave decoding to the decode stage.
+                // The original bytes are written to the disk cache in the
+                // background.
+                EncodedImage stale = mEncoded;
+                mEncoded = null;
+                boolean staleSubmitted = false;
                 try {
-                    mBitmap = getBitmapFromMemory(mUrl);
-                } catch (OutOfMemoryError e) {
-                    decreaseMemCacheSize();
-                    System.gc();
-                    mBitmap = getBitmapFromMemory(mUrl);
+                    long bytes = fetchEncoded(url, stale);
+                    staleSubmitted = bytes < 0;
+                    return Math.max(0, bytes);
+                } finally {
+                    if (!staleSubmitted) {
+                        IOUtils.closeQuietly(stale);
+                    }
                 }
-                if (mBitmap != null) {
-                    // Keep a hard reference until the view has been notified.
-                    mLoadSource = LoadSource.CACHE_MEMORY;
-                    return true;
+            }
+
+            mLoadSource = LoadSource.EXTERNAL;
+            // A custom ContentHandler fetches and decodes in one step, so its
+            // result is cached on disk re-encoded as a PNG.
+            try {
+                mBitmap = loadImage(url);
+            } catch (OutOfMemoryError e) {
+                decreaseMemCacheSize();
+                // The VM does not always free-up memory as it should,
+                // so manually invoke the garbage collector
+                // and try loading the image again.
+                System.gc();
+                mBitmap = loadImage(url);
+            }
+            if (mBitmap == null) {
+                throw new NullPointerException("ContentHandler returned null");
+            }
+            // Requests are always made at full size for a custom
+            // ContentHandler, see supportedSize().
+            putBitmapOnDisk(mUrl, mBitmap);
+            finish();
+            return 0;
+        }
+
+        /**
+         * Fetches the encoded image and submits it to the decode stage.
+         * 
+         * @param stale
+         *            the expired image from the disk cache, or {@code null}.
+         *            It is revalidated, and submitted instead if it has not
+         *            been modified or the server cannot be reached.
+         * @return the number of bytes fetched, or {@code -1} if the stale
+         *         image was submitted.
+         */
+        private long fetchEncoded(URL url, EncodedImage stale)
+                throws IOException {
+            URLConnection connection = url.openConnection();
+            if (stale != null && stale.mMetadata != null) {
+                stale.mMetadata.addConditionalHeaders(connection);
+            }
+            byte[] encoded;
+            try {
+                encoded = ((BitmapContentHandler) mBitmapContentHandler)
+                        .readContent(connection, mCancellationSignal);
+            } catch (IOException e) {
+                if (stale == null || isCancelled()) {
+                    throw e;
                 }
+                Log.w(LOG_TAG, "Failed to revalidate " + mUrl, e);
+                mEncoded = stale;
+                mLoadSource = LoadSource.CACHE_DISK;
+                submit(Stage.DECODE);
+                return -1;
+            }
+            long now = System.currentTimeMillis();
+            if (encoded == null) {
+                if (stale == null || stale.mMetadata == null) {
+                    throw new IOException("Unexpected 304 response");
+                }
+                // Not modified, so the image on disk stays valid for a while
+                // longer.
+                HttpCacheMetadata metadata = stale.mMetadata.revalidate(
+                        connection, now);
+                if (metadata.isStorable()) {
+                    updateMetadataOnDisk(mUrl, metadata);
+                } else {
+                    removeFromDisk(mUrl);
+                }
+                mEncodedInMem.updateMetadata(urlToKey(mUrl), metadata.format());
+                mEncoded = stale;
+                mLoadSource = LoadSource.CACHE_DISK;
+                submit(Stage.DECODE);
+                return -1;
+            }
+            HttpCacheMetadata metadata = HttpCacheMetadata.fromResponse(
+                    connection, now);
+            if (metadata == null || metadata.isStorable()) {
+                putOnDisk(mUrl, encoded, metadata);
+            } else {
+                // The previous content must not be served from disk either.
+                removeFromDisk(mUrl);
+            }
+            // An evicted bitmap of the previous content must not be served.
+            mEvictedBitmaps.remove(urlToKey(mKey));
+            mEncodedInMem.put(urlToKey(mUrl), encoded,
+                    metadata != null ? metadata.format() : null);
+            mEncoded = new ByteArrayImage(encoded);
+            mLoadSource = LoadSource.EXTERNAL;
+            submit(Stage.DECODE);
+            return encoded.length;
+        }
 
-                // Check if the Bitmap is already cached on disk
+        private void runDecodeStage() throws IOException {
+            EncodedImage encoded = mEncoded;
+            mEncoded = null;
+            try {
+                if (!encoded.open()) {
+                    // Removed from the disk cache while waiting.
+                    mLoadSource = LoadSource.EXTERNAL;
+                    submit(Stage.NETWORK);
+                    return;
+                }
                 try {
-                    mBitmap = getBitmapFromDisk(mUrl);
+                    mBitmap = decode(encoded);
                 } catch (OutOfMemoryError e) {
                     decreaseMemCacheSize();
                     System.gc();
-                    mBitmap = getBitmapFromDisk(mUrl);
+                    mBitmap = decode(encoded);
                 }
-                if (mBitmap != null) {
-                    mLoadSource = LoadSource.CACHE_DISK;
-                    return true;
-                }
-
-                String protocol = getProtocol(mUrl);
-                URLStreamHandler streamHandler = getURLStreamHandler(protocol);
-                URL url = new URL(null, mUrl, streamHandler);
-
-                if (mLoadBitmap) {
-                    try {
-                        mBitmap = loadImage(url);
-                    } catch (OutOfMemoryError e) {
-                        decreaseMemCacheSize();
-                        // The VM does not always free-up memory as it should,
-                        // so manually invoke the garbage collector
-                        // and try loading the image again.
-                        System.gc();
-                        mBitmap = loadImage(url);
-                    }
-                    if (mBitmap == null) {
-                        throw new NullPointerException(
-                                "ContentHandler returned null");
-                    }
-                    return true;
-                } else {
-                    if (mPrefetchContentHandler != null) {
-                        // Cache the URL without loading a Bitmap into memory.
-                        URLConnection connection = url.openConnection();
-                        mPrefetchContentHandler.getContent(connection);
+            } finally {
+                IOUtils.closeQuietly(encoded);
+            }
+            if (mBitmap == null) {
+                if (isCancelled()) {
+                    return;
+                }
+                // Do not serve the corrupt image from the caches again.
+                mEncodedInMem.remove(urlToKey(mUrl));
+                mEvictedBitmaps.remove(urlToKey(mKey));
+                removeFromDisk(mUrl);
+                throw new IOException("Image could not be decoded");
+            }
+            finish();
+        }
+
+        /**
+         * Loads the image with a custom {@link ContentHandler}. A subclass of
+         * {@link BitmapContentHandler} is also called through
+         * {@link ContentHandler#getContent(URLConnection)}, which it may
+         * override to transform the image.
+         */
+        private Bitmap loadImage(URL url) throws IOException {
+            URLConnection connection = url.openConnection();
+            return (Bitmap) mBitmapContentHandler.getContent(connection);
+        }
+
+        private Bitmap decode(EncodedImage encoded) throws IOException {
+            final BitmapFactory.Options options = new BitmapFactory.Options();
+            mCancellationSignal
+                    .setOnCancelListener(new CancellationSignal.OnCancelListener() {
+                        @Override
+                        public void onCancel() {
+                            options.requestCancelDecode();
+                        }
+                    });
+            try {
+                return decode(encoded, options);
+            } finally {
+                mCancellationSignal.setOnCancelListener(null);
+            }
+        }
+
+        /**
+         * Decodes at the requested size, reusing a pooled {@link Bitmap} if
+         * possible.
+         */
+        private Bitmap decode(EncodedImage encoded,
+                BitmapFactory.Options options) throws IOException {
+            boolean reuse = mBitmapPool.isEnabled();
+            ConfigPolicy policy = mConfigPolicy;
+            if (mSize == null && !reuse && policy == ConfigPolicy.ARGB_8888) {
+                return encoded.decode(options);
+            }
+
+            options.inJustDecodeBounds = true;
+            encoded.decode(options);
+            options.inJustDecodeBounds = false;
+            if (options.outWidth < 1 || options.outHeight < 1) {
+                return null;
+            }
+            int sampleSize = mSize != null ? mSize.computeSampleSize(
+                    options.outWidth, options.outHeight) : 1;
+            options.inSampleSize = sampleSize;
+            if (policy == ConfigPolicy.RGB_565_IF_OPAQUE
+                    && ImageHeader.isOpaque(encoded.getHeader(),
+                            options.outMimeType)) {
+                options.inPreferredConfig = Bitmap.Config.RGB_565;
+            } else {
+                options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+            }
+
+            // Before KitKat, a bitmap can only be reused to decode an image
+            // of the same size without sub-sampling.
+            if (reuse) {
+                options.inMutable = true;
+                if (sampleSize == 1 || Build.VERSION.SDK_INT >= 19) {
+                    Bitmap.Config config = options.inPreferredConfig;
+                    if (config == null) {
+                        config = Bitmap.Config.ARGB_8888;
                     }
-                    mBitmap = null;
-                    return false;
+                    options.inBitmap = mBitmapPool.get(
+                            (options.outWidth + sampleSize - 1) / sampleSize,
+                            (options.outHeight + sampleSize - 1) / sampleSize,
+                            config);
                 }
-            } catch (IOException e) {
-                mError = new ImageError(e);
-                return true;
-            } catch (RuntimeException e) {
-                mError = new ImageError(e);
-                return true;
-            } catch (Error e) {
-                mError = new ImageError(e);
-                return true;
             }
+
+            Bitmap bitmap;
+            try {
+                bitmap = encoded.decode(options);
+            } catch (IllegalArgumentException e) {
+                // The pooled bitmap could not be reused.
+                mBitmapPool.put(options.inBitmap);
+                options.inBitmap = null;
+                bitmap = encoded.decode(options);
+            }
+            if (bitmap == null) {
+                if (reuse) {
+                    mBitmapPool.put(options.inBitmap);
+                }
+                return null;
+            }
+            if (mSize != null) {
+                Bitmap scaled = mSize.scale(bitmap);
+                if (scaled != bitmap && !mBitmapPool.put(bitmap)) {
+                    bitmap.recycle();
+                }
+                bitmap = scaled;
+            }
+            return bitmap;
+        }
+
+        private void fail(Throwable cause) {
+            mError = new ImageError(cause);
+            finish();
         }
 
-        public void publishResult() {
+        /**
+         * Publishes the result to the caches and completes the attached
+         * handles. Callbacks that must run in the main thread are posted there
+         * together.
+         */
+        private void finish() {
+            mStage = null;
+            try {
+                publish();
+            } finally {
+                if (mBitmapAcquired) {
+                    releaseBitmap(mBitmap);
+                    mBitmapAcquired = false;
+                }
+            }
+        }
+
+        private void publish() {
+            if (mBitmap != null && !mBitmapAcquired) {
+                // Another thread may evict the bitmap as soon as it is cached.
+                // The handles acquire it in turn until it has been delivered.
+                acquireBitmap(mBitmap);
+                mBitmapAcquired = true;
+            }
             if (mBitmap != null) {
-                putBitmapInMemory(mUrl, mBitmap);
+                if (mLoadSource != LoadSource.CACHE_MEMORY) {
+                    // Re-adding a bitmap found in memory would reset its cost.
+                    putBitmapInMemory(mKey, mBitmap, getWorkMillis());
+                }
             } else if (mError != null && !hasError(mUrl)) {
                 putError(mUrl, mError);
             }
-            if (mCallback != null) {
-                if (mBitmap != null) {
-                    mCallback.onImageLoaded(mBitmap, mUrl, mLoadSource);
-                } else if (mError != null) {
-                    mCallback.onImageError(mUrl, mError.getCause());
+            List<LoadHandle> handles;
+            synchronized (mPendingRequests) {
+                if (mPendingRequests.get(mKey) == this) {
+                    mPendingRequests.remove(mKey);
                 }
+                handles = new ArrayList<LoadHandle>(mHandles);
+            }
+            Throwable error = mError != null ? mError.getCause() : null;
+            List<LoadHandle> mainThreadHandles = null;
+            for (LoadHandle handle : handles) {
+                if (handle.complete(mBitmap, mLoadSource, error)) {
+                    if (mainThreadHandles == null) {
+                        mainThreadHandles = new ArrayList<LoadHandle>(
+                                handles.size());
+                    }
+                    mainThreadHandles.add(handle);
+                }
+            }
+            if (mainThreadHandles != null) {
+                sHandler.obtainMessage(MESSAGE_DELIVER_RESULT,
+                        mainThreadHandles).sendToTarget();
             }
         }
 
-        public void writeBackResult() {
-            if (mBitmap != null) {
-                putBitmapOnDisk(mUrl, mBitmap);
+    }
+
+    /**
+     * Pre-loads or pre-fetches a batch of URLs in a single task of the disk
+     * stage. URLs that are cached or recently failed are skipped without
+     * creating an {@link ImageRequest}, and URLs that are already in flight
+     * join the existing request.
+     * <p>
+     * When a more urgent task is waiting for the disk stage, the rest of the
+     * batch is queued again, so that the task gives its thread up.
+     */
+    private class BatchRequest implements Runnable, Prioritized {
+
+        private final List<String> mUrls;
+
+        private final TargetSize mSize;
+
+        private final boolean mLoadBitmap;
+
+        private final Priority mPriority;
+
+        public BatchRequest(List<String> urls, TargetSize size,
+                boolean loadBitmap, Priority priority) {
+            mUrls = urls;
+            mSize = size;
+            mLoadBitmap = loadBitmap;
+            mPriority = priority;
+        }
+
+        @Override
+        public int getPriority() {
+            return mPriority.ordinal();
+        }
+
+        /**
+         * Returns {@code true} if a task more urgent than this batch is
+         * waiting for the disk stage.
+         */
+        private boolean isPreempted() {
+            Runnable next = Stage.DISK.mQueue.peek();
+            return next instanceof Prioritized
+                    && ((Prioritized) next).getPriority() < getPriority();
+        }
+
+        @Override
+        public void run() {
+            for (int i = 0; i < mUrls.size(); i++) {
+                if (i > 0 && isPreempted()) {
+                    Stage.DISK.mExecutor.execute(new BatchRequest(mUrls
+                            .subList(i, mUrls.size()), mSize, mLoadBitmap,
+                            mPriority));
+                    return;
+                }
+                String url = mUrls.get(i);
+                String key = cacheKey(url, mSize);
+                if (hasError(url) || getBitmapFromMemory(key) != null) {
+                    continue;
+                }
+                if (!mLoadBitmap && isOnDisk(url)) {
+                    // Already cached, nothing to pre-fetch.
+                    continue;
+                }
+                ImageRequest request;
+                synchronized (mPendingRequests) {
+                    request = mPendingRequests.get(key);
+                    if (request != null
+                            && request.attachBatch(mLoadBitmap, mPriority)) {
+                        continue;
+                    }
+                    request = new ImageRequest(url, mSize, mLoadBitmap);
+                    request.attachBatch(mLoadBitmap, mPriority);
+                    mPendingRequests.put(key, request);
+                }
+                // Run the disk stage of the request in this task, rather
+                // than queueing a task per URL.
+                request.mStage = Stage.DISK;
+                request.run();
             }
         }
 
     }
 
-    private class ImageTask extends
-            LifoAsyncTask<ImageRequest, ImageRequest, Void> {
+    /**
+     * An encoded image handed to the decode stage.
+     */
+    private static abstract class EncodedImage implements Closeable {
+
+        /**
+         * The number of leading bytes returned by {@link #getHeader()}.
+         */
+        protected static final int HEADER_SIZE = 4096;
+
+        /**
+         * Prepares the image for decoding. Called by the decode stage before
+         * any other method.
+         * 
+         * @return {@code false} if the image is no longer available.
+         */
+        public boolean open() throws IOException {
+            return true;
+        }
+
+        public abstract Bitmap decode(BitmapFactory.Options options)
+                throws IOException;
+
+        /**
+         * Returns at least the leading bytes of the image, for sniffing its
+         * format.
+         */
+        public abstract byte[] getHeader() throws IOException;
+
+        /**
+         * The HTTP caching headers of a cached image, or {@code null} if there
+         * are none.
+         */
+        HttpCacheMetadata mMetadata;
+
+        /**
+         * Returns {@code true} if the image may be used without revalidating
+         * it with the server.
+         */
+        public boolean isFresh() {
+            return mMetadata == null
+                    || mMetadata.isFresh(System.currentTimeMillis());
+        }
 
         @Override
-        protected Void doInBackground(ImageRequest... requests) {
-            for (ImageRequest request : requests) {
-                if (request.execute()) {
-                    publishProgress(request);
-                    request.writeBackResult();
-                }
+        public void close() throws IOException {
+        }
+    }
+
+    /**
+     * An encoded image held in memory, as fetched from the network.
+     */
+    private static class ByteArrayImage extends EncodedImage {
+
+        private final byte[] mBytes;
+
+        public ByteArrayImage(byte[] bytes) {
+            mBytes = bytes;
+        }
+
+        @Override
+        public Bitmap decode(BitmapFactory.Options options) {
+            return BitmapFactory.decodeByteArray(mBytes, 0, mBytes.length,
+                    options);
+        }
+
+        @Override
+        public byte[] getHeader() {
+            return mBytes;
+        }
+    }
+
+    /**
+     * An encoded image held in shared memory by the memory cache of encoded
+     * images. The image is kept in memory until it is closed, even if it is
+     * evicted.
+     */
+    private static class MemoryImage extends EncodedImage {
+
+        private final EncodedMemoryCache.Entry mEntry;
+
+        private boolean mClosed;
+
+        /**
+         * @param entry
+         *            an entry held with
+         *            {@link EncodedMemoryCache.Entry#acquire()}, which is
+         *            released when the image is closed.
+         */
+        public MemoryImage(EncodedMemoryCache.Entry entry) {
+            mEntry = entry;
+        }
+
+        @Override
+        public Bitmap decode(BitmapFactory.Options options) throws IOException {
+            InputStream in = mEntry.newInputStream();
+            try {
+                return BitmapFactory.decodeStream(in, null, options);
+            } finally {
+                in.close();
             }
-            return null;
         }
 
         @Override
-        protected void onProgressUpdate(ImageRequest... values) {
-            for (ImageRequest request : values) {
-                request.publishResult();
+        public byte[] getHeader() throws IOException {
+            InputStream in = mEntry.newInputStream();
+            try {
+                byte[] bytes = new byte[Math.min(HEADER_SIZE,
+                        mEntry.getLength())];
+                // The stream reads across pages until the array is full.
+                in.read(bytes);
+                return bytes;
+            } finally {
+                in.close();
+            }
+        }
+
+        @Override
+        public synchronized void close() {
+            if (!mClosed) {
+                mClosed = true;
+                mEntry.release();
+            }
+        }
+    }
+
+    /**
+     * An encoded image in a disk cache file. It is decoded from the file
+     * descriptor, so the file is never copied into the heap.
+     */
+    private static class SnapshotImage extends EncodedImage {
+
+        private final DiskCache mCache;
+
+        private final String mKey;
+
+        private final AtomicInteger mOpenCount;
+
+        private Snapshot mSnapshot;
+
+        private FileInputStream mInput;
+
+        /**
+         * Creates an image from an open entry.
+         * 
+         * @param openCount
+         *            the number of open entries, decremented once this image
+         *            is closed.
+         */
+        public SnapshotImage(Snapshot snapshot, FileInputStream input,
+                AtomicInteger openCount) {
+            mCache = null;
+            mKey = null;
+            mOpenCount = openCount;
+            mSnapshot = snapshot;
+            mInput = input;
+            openCount.incrementAndGet();
+        }
+
+        /**
+         * Creates an image whose entry is opened by {@link #open()}, without
+         * counting as another use of the entry.
+         */
+        public SnapshotImage(DiskCache cache, String key,
+                AtomicInteger openCount) {
+            mCache = cache;
+            mKey = key;
+            mOpenCount = openCount;
+        }
+
+        @Override
+        public boolean open() throws IOException {
+            if (mSnapshot != null) {
+                return true;
             }
+            Snapshot snapshot = mCache.reopen(mKey);
+            if (snapshot == null) {
+                return false;
+            }
+            InputStream in = DiskCache.getData(snapshot);
+            if (!(in instanceof FileInputStream)) {
+                IOUtils.closeQuietly(snapshot);
+                return false;
+            }
+            mSnapshot = snapshot;
+            mInput = (FileInputStream) in;
+            mOpenCount.incrementAndGet();
+            return true;
+        }
+
+        @Override
+        public Bitmap decode(BitmapFactory.Options options) throws IOException {
+            // The decoder restores the offset of the descriptor, so it can be
+            // decoded repeatedly.
+            return BitmapFactory.decodeFileDescriptor(mInput.getFD(), null,
+                    options);
+        }
+
+        @Override
+        public byte[] getHeader() throws IOException {
+            // A positional read leaves the offset of the descriptor alone.
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            mInput.getChannel().read(header, 0);
+            byte[] bytes = new byte[header.position()];
+            header.flip();
+            header.get(bytes);
+            return bytes;
         }
 
+        @Override
+        public void close() {
+            if (mSnapshot != null) {
+                IOUtils.closeQuietly(mSnapshot);
+                mSnapshot = null;
+                mInput = null;
+                mOpenCount.decrementAndGet();
+            }
+        }
     }
 
     private static class ImageError {
@@ -927,25 +3200,4 @@ public final class ImageLoader {
         }
     }
 
-    private static final class BitmapConverter implements
-            TwoLevelLruCache.Converter<Bitmap> {
-
-        @Override
-        public Bitmap from(byte[] bytes) throws IOException {
-            return BitmapFactory.decodeByteArray(bytes, 0, bytes.length);
-        }
-
-        @Override
-        public void toStream(Bitmap o, OutputStream bytes) throws IOException {
-            ByteArrayOutputStream os = new ByteArrayOutputStream();
-            try {
-                o.compress(CompressFormat.PNG, 100, os);
-                bytes.write(os.toByteArray());
-            } finally {
-                IOUtils.closeQuietly(os);
-            }
-        }
-
-    }
-
 }
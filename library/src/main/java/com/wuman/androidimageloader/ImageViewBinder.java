@@ -46,7 +46,7 @@ public class ImageViewBinder extends AbstractViewBinder<ImageView> implements
         // @formatter:off
         if (LOAD_ON_FLING
                 && mScrollState == OnScrollListener.SCROLL_STATE_FLING) {
-            Bitmap bitmap = mImageLoader.loadOnlyFromMemCache(url);
+            Bitmap bitmap = bindFromMemCache(view, url);
             if (bitmap != null) {
                 view.setImageBitmap(bitmap);
             } else {
@@ -55,8 +55,7 @@ public class ImageViewBinder extends AbstractViewBinder<ImageView> implements
         } else 
         // @formatter:on
         {
-            LoadResult bindResult = mImageLoader.load(url, new ViewCallback(
-                    view));
+            LoadResult bindResult = load(view, url);
             if (bindResult == LoadResult.LOADING) {
                 view.setImageResource(mLoadingResource);
             }
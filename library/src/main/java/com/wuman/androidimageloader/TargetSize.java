@@ -0,0 +1,173 @@
+package com.wuman.androidimageloader;
+
+import android.graphics.Bitmap;
+import android.graphics.Matrix;
+
+/**
+ * The size at which an image is displayed. Images loaded with a
+ * {@link TargetSize} are sub-sampled while decoding, so that large images
+ * shown in small views do not take up more memory than needed, and are cached
+ * separately for each size.
+ */
+public final class TargetSize {
+
+    public static enum ScaleMode {
+        /**
+         * The image is shown entirely within the target size, like
+         * {@link android.widget.ImageView.ScaleType#FIT_CENTER}.
+         */
+        FIT,
+        /**
+         * The image covers the target size and is cropped, like
+         * {@link android.widget.ImageView.ScaleType#CENTER_CROP}.
+         */
+        CROP
+    }
+
+    private final int mWidth;
+
+    private final int mHeight;
+
+    private final ScaleMode mScaleMode;
+
+    private final boolean mExact;
+
+    /**
+     * Creates a {@link TargetSize} that only sub-samples images by a power of
+     * two, leaving the final scaling to the view.
+     */
+    public TargetSize(int width, int height, ScaleMode scaleMode) {
+        this(width, height, scaleMode, false);
+    }
+
+    /**
+     * Creates a {@link TargetSize}.
+     *
+     * @param width
+     *            the target width in pixels.
+     * @param height
+     *            the target height in pixels.
+     * @param scaleMode
+     *            how the image is fitted into the target size.
+     * @param exact
+     *            whether the sub-sampled image is scaled down further to the
+     *            target size (and cropped if the {@link ScaleMode} is
+     *            {@link ScaleMode#CROP}). Images are never scaled up.
+     */
+    public TargetSize(int width, int height, ScaleMode scaleMode,
+            boolean exact) {
+        if (width < 1 || height < 1) {
+            throw new IllegalArgumentException("Invalid size: " + width + "x"
+                    + height);
+        }
+        if (scaleMode == null) {
+            throw new NullPointerException("ScaleMode is null");
+        }
+        mWidth = width;
+        mHeight = height;
+        mScaleMode = scaleMode;
+        mExact = exact;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public ScaleMode getScaleMode() {
+        return mScaleMode;
+    }
+
+    public boolean isExact() {
+        return mExact;
+    }
+
+    /**
+     * Returns the largest power of two by which an image of the given size
+     * can be sub-sampled without becoming smaller than the target size.
+     */
+    public int computeSampleSize(int width, int height) {
+        if (width < 1 || height < 1) {
+            return 1;
+        }
+        double widthRatio = (double) width / mWidth;
+        double heightRatio = (double) height / mHeight;
+        double ratio = mScaleMode == ScaleMode.FIT ? Math.max(widthRatio,
+                heightRatio) : Math.min(widthRatio, heightRatio);
+        int sampleSize = 1;
+        while (sampleSize * 2 <= ratio) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * Scales a {@link Bitmap} down to this size if the size is exact.
+     * Otherwise the {@link Bitmap} is returned unchanged.
+     * <p>
+     * If a new {@link Bitmap} is returned, the caller may recycle the given
+     * one.
+     */
+    public Bitmap scale(Bitmap bitmap) {
+        if (!mExact) {
+            return bitmap;
+        }
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        float widthScale = (float) mWidth / width;
+        float heightScale = (float) mHeight / height;
+        float scale = Math.min(1f,
+                mScaleMode == ScaleMode.FIT ? Math.min(widthScale, heightScale)
+                        : Math.max(widthScale, heightScale));
+
+        // The region of the source that remains after cropping.
+        int cropWidth = width;
+        int cropHeight = height;
+        if (mScaleMode == ScaleMode.CROP) {
+            cropWidth = Math.min(width, Math.round(mWidth / scale));
+            cropHeight = Math.min(height, Math.round(mHeight / scale));
+        }
+        if (scale == 1f && cropWidth == width && cropHeight == height) {
+            return bitmap;
+        }
+        Matrix matrix = new Matrix();
+        matrix.setScale(scale, scale);
+        return Bitmap.createBitmap(bitmap, (width - cropWidth) / 2,
+                (height - cropHeight) / 2, cropWidth, cropHeight, matrix, true);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof TargetSize)) {
+            return false;
+        }
+        TargetSize other = (TargetSize) o;
+        return mWidth == other.mWidth && mHeight == other.mHeight
+                && mScaleMode == other.mScaleMode && mExact == other.mExact;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = mWidth;
+        result = 31 * result + mHeight;
+        result = 31 * result + mScaleMode.hashCode();
+        result = 31 * result + (mExact ? 1 : 0);
+        return result;
+    }
+
+    /**
+     * Returns a string identifying this size, used in cache keys.
+     */
+    @Override
+    public String toString() {
+        return mWidth + "x" + mHeight + "-" + mScaleMode.name().toLowerCase()
+                + (mExact ? "-exact" : "");
+    }
+
+}
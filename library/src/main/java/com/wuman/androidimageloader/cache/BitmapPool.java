@@ -0,0 +1,263 @@
+package com.wuman.androidimageloader.cache;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+
+import com.wuman.androidimageloader.util.concurrent.ArrayDeque;
+
+/**
+ * A pool of mutable {@link Bitmap}s that are no longer used, to be reused as
+ * {@link BitmapFactory.Options#inBitmap} when decoding images of the same size
+ * and {@link Bitmap.Config}.
+ * <p>
+ * Bitmaps are bucketed by width, height and {@link Bitmap.Config}. When the
+ * pool exceeds its maximum size, the least recently pooled bitmaps are
+ * dropped. Bitmaps are only reused on Honeycomb and later.
+ */
+public class BitmapPool {
+
+    /**
+     * {@code Bitmap.getAllocationByteCount()}, which is only available on
+     * KitKat and later, or {@code null}.
+     */
+    private static final Method GET_ALLOCATION_BYTE_COUNT = findGetAllocationByteCount();
+
+    private final HashMap<Long, ArrayDeque<Bitmap>> mBuckets;
+
+    /**
+     * All pooled bitmaps, least recently pooled first.
+     */
+    private final LinkedList<Bitmap> mOrder;
+
+    private long mSize;
+
+    private long mMaxSize;
+
+    private int mHitCount;
+
+    private int mMissCount;
+
+    private int mPutCount;
+
+    private long mPutBytes;
+
+    /**
+     * Creates a {@link BitmapPool}.
+     *
+     * @param maxSize
+     *            the maximum number of bytes held by the pool. {@code 0}
+     *            disables pooling.
+     */
+    public BitmapPool(long maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("maxSize < 0");
+        }
+        mMaxSize = maxSize;
+        mBuckets = new HashMap<Long, ArrayDeque<Bitmap>>();
+        mOrder = new LinkedList<Bitmap>();
+    }
+
+    /**
+     * Returns {@code true} if bitmaps may be pooled and reused.
+     */
+    public synchronized boolean isEnabled() {
+        return mMaxSize > 0
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB;
+    }
+
+    private static Long keyOf(int width, int height, Bitmap.Config config) {
+        return Long.valueOf(((long) width << 32) | ((long) height << 4)
+                | config.ordinal());
+    }
+
+    private static Method findGetAllocationByteCount() {
+        if (Build.VERSION.SDK_INT < 19) {
+            return null;
+        }
+        try {
+            return Bitmap.class.getMethod("getAllocationByteCount");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the number of bytes allocated for the pixels of a
+     * {@link Bitmap}. From KitKat on, a {@link Bitmap} reused to decode a
+     * smaller image keeps its larger allocation, which is what is counted.
+     */
+    public static int getByteCount(Bitmap bitmap) {
+        if (GET_ALLOCATION_BYTE_COUNT != null) {
+            try {
+                return ((Integer) GET_ALLOCATION_BYTE_COUNT.invoke(bitmap))
+                        .intValue();
+            } catch (IllegalAccessException ignored) {
+            } catch (InvocationTargetException ignored) {
+            }
+        }
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+    private static long sizeOf(Bitmap bitmap) {
+        return getByteCount(bitmap);
+    }
+
+    /**
+     * Adds an unused {@link Bitmap} to the pool. The caller must not use the
+     * {@link Bitmap} afterwards.
+     *
+     * @return {@code false} if the {@link Bitmap} cannot be reused and was not
+     *         pooled.
+     */
+    public synchronized boolean put(Bitmap bitmap) {
+        if (bitmap == null || !isEnabled() || !bitmap.isMutable()
+                || bitmap.isRecycled() || bitmap.getConfig() == null) {
+            return false;
+        }
+        long size = sizeOf(bitmap);
+        if (size > mMaxSize) {
+            return false;
+        }
+        Long key = keyOf(bitmap.getWidth(), bitmap.getHeight(),
+                bitmap.getConfig());
+        ArrayDeque<Bitmap> bucket = mBuckets.get(key);
+        if (bucket == null) {
+            bucket = new ArrayDeque<Bitmap>();
+            mBuckets.put(key, bucket);
+        }
+        bucket.offerLast(bitmap);
+        mOrder.addLast(bitmap);
+        mSize += size;
+        mPutCount++;
+        mPutBytes += size;
+        trimToSize(mMaxSize);
+        return true;
+    }
+
+    /**
+     * Removes and returns a pooled {@link Bitmap} of the given size and
+     * {@link Bitmap.Config}, or {@code null} if there is none.
+     */
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        if (config == null || !isEnabled()) {
+            return null;
+        }
+        ArrayDeque<Bitmap> bucket = mBuckets.get(keyOf(width, height, config));
+        Bitmap bitmap = bucket != null ? bucket.pollLast() : null;
+        if (bitmap == null) {
+            mMissCount++;
+            return null;
+        }
+        if (bucket.isEmpty()) {
+            mBuckets.remove(keyOf(width, height, config));
+        }
+        mOrder.remove(bitmap);
+        mSize -= sizeOf(bitmap);
+        mHitCount++;
+        return bitmap;
+    }
+
+    /**
+     * Drops the least recently pooled bitmaps until the pool holds no more
+     * than the given number of bytes.
+     */
+    public synchronized void trimToSize(long maxSize) {
+        Iterator<Bitmap> it = mOrder.iterator();
+        while (mSize > maxSize && it.hasNext()) {
+            Bitmap bitmap = it.next();
+            it.remove();
+            Long key = keyOf(bitmap.getWidth(), bitmap.getHeight(),
+                    bitmap.getConfig());
+            ArrayDeque<Bitmap> bucket = mBuckets.get(key);
+            if (bucket != null) {
+                bucket.removeFirstOccurrence(bitmap);
+                if (bucket.isEmpty()) {
+                    mBuckets.remove(key);
+                }
+            }
+            mSize -= sizeOf(bitmap);
+            bitmap.recycle();
+        }
+    }
+
+    /**
+     * Drops all pooled bitmaps.
+     */
+    public synchronized void evictAll() {
+        trimToSize(0);
+    }
+
+    public synchronized void setMaxSize(long maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("maxSize < 0");
+        }
+        mMaxSize = maxSize;
+        trimToSize(maxSize);
+    }
+
+    /**
+     * Returns the number of bytes currently held by the pool.
+     */
+    public synchronized long size() {
+        return mSize;
+    }
+
+    public synchronized long maxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * Returns the number of times {@link #get(int, int, Bitmap.Config)}
+     * returned a {@link Bitmap}.
+     */
+    public synchronized int hitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * Returns the number of times {@link #get(int, int, Bitmap.Config)}
+     * returned {@code null}.
+     */
+    public synchronized int missCount() {
+        return mMissCount;
+    }
+
+    /**
+     * Returns the number of bitmaps that have been pooled.
+     */
+    public synchronized int putCount() {
+        return mPutCount;
+    }
+
+    /**
+     * Returns the total number of bytes that have been pooled.
+     */
+    public synchronized long putBytes() {
+        return mPutBytes;
+    }
+
+    public synchronized void clearStats() {
+        mHitCount = 0;
+        mMissCount = 0;
+        mPutCount = 0;
+        mPutBytes = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        int accesses = mHitCount + mMissCount;
+        int hitPercent = accesses != 0 ? (100 * mHitCount / accesses) : 0;
+        return String.format(
+                "BitmapPool[size=%d,maxSize=%d,hits=%d,misses=%d,hitRate=%d%%,puts=%d,putBytes=%d]",
+                mSize, mMaxSize, mHitCount, mMissCount, hitPercent, mPutCount,
+                mPutBytes);
+    }
+
+}
@@ -0,0 +1,1299 @@
+package com.wuman.androidimageloader.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.IOUtils;
+
+import android.util.Log;
+
+import com.jakewharton.DiskLruCache;
+import com.jakewharton.DiskLruCache.Editor;
+import com.jakewharton.DiskLruCache.Snapshot;
+import com.wuman.androidimageloader.util.BloomFilter;
+import com.wuman.androidimageloader.util.concurrent.ArrayDeque;
+
+/**
+ * A {@link DiskLruCache} that is opened and cleared in the background.
+ * <p>
+ * Each entry holds its data and an optional string of metadata, which can be
+ * replaced without rewriting the data.
+ * <p>
+ * The cache may be split into shards, each an independent {@link DiskLruCache}
+ * in its own sub-directory holding an equal share of the maximum size. Keys
+ * are spread across the shards by their hash. A {@link DiskLruCache}
+ * serializes all operations and journal rebuilds on a single lock, so threads
+ * accessing different shards no longer wait for each other.
+ * <p>
+ * Each shard keeps a {@link BloomFilter} of its keys, built from its files
+ * when it is opened and updated on every edit. Keys that were never cached
+ * are looked up without taking the shard's lock or touching the file system.
+ * Since keys cannot be removed from a {@link BloomFilter}, the index is
+ * rebuilt from the current entries once as many keys have been added as it
+ * was sized for, so that evicted keys do not wear it out.
+ * <p>
+ * When the entries of all shards together exceed the maximum size, entries
+ * are evicted as chosen by a {@link DiskEvictionPolicy}, by default
+ * {@link LruDiskEvictionPolicy}. Each {@link DiskLruCache} evicts its least
+ * recently used entries on its own only if it grows well beyond its share,
+ * which does not happen unless entries are spread very unevenly.
+ * <p>
+ * A {@link DiskCache} may be the first tier of a larger, slower
+ * {@link DiskCache} set with {@link #setNextTier(DiskCache)}, for example one
+ * on external storage. Evicted entries are moved to the next tier, and entries
+ * read from the next tier are moved back in the background. Each tier has its
+ * own maximum size and eviction policy, and is opened and cleared separately.
+ * <p>
+ * Opening a {@link DiskLruCache} replays its journal, which takes a while for
+ * large caches. Until the cache has been opened, it behaves as if it were
+ * empty and read-only: {@link #get(String)} returns {@code null}, and
+ * {@link #put(String, byte[])} returns {@code false}.
+ * <p>
+ * Each {@link #clear()} starts a new generation of the cache in a fresh
+ * sub-directory, and deletes the previous generations in the background.
+ * Snapshots of a previous generation remain readable, and edits of a previous
+ * generation are discarded. Writers may wait for the new generation with
+ * {@link #awaitOpen(long)}.
+ * <p>
+ * Opening and clearing run one at a time on the {@link Executor} given to the
+ * constructor. Housekeeping that nothing waits for, such as deleting files,
+ * runs on the {@link Executor} set with
+ * {@link #setHousekeepingExecutor(Executor)}, which should be of low
+ * priority.
+ */
+public class DiskCache {
+
+    private static final String LOG_TAG = DiskCache.class.getSimpleName();
+
+    private static final String GENERATION_PREFIX = "gen";
+
+    private static final String SHARD_PREFIX = "shard";
+
+    /**
+     * A small estimate of the size of an entry, used to size the index of a
+     * shard so that it stays accurate until the shard has been filled.
+     */
+    private static final long MIN_ENTRY_SIZE = 8 * 1024;
+
+    private static final int MIN_INDEX_SIZE = 256;
+
+    /**
+     * The most hits buffered for the eviction policy. Later hits are dropped
+     * until the buffer is drained.
+     */
+    private static final int MAX_PENDING_HITS = 256;
+
+    /**
+     * The maximum size of each {@link DiskLruCache}, as a multiple of its
+     * share of the maximum size.
+     */
+    private static final int SHARD_SIZE_SLACK = 2;
+
+    /**
+     * Each entry holds its data and a string of metadata.
+     */
+    private static final int VALUE_COUNT = 2;
+
+    private static final int DATA_INDEX = 0;
+
+    private static final int METADATA_INDEX = 1;
+
+    /**
+     * The names of the files holding the values of entries.
+     */
+    private static final Pattern ENTRY_FILE_PATTERN = Pattern
+            .compile("(.+)\\.\\d+");
+
+    /**
+     * The journal and entry files of a {@link DiskLruCache}.
+     */
+    private static final Pattern LEGACY_FILE_PATTERN = Pattern
+            .compile("journal(\\.tmp|\\.bkp)?|[0-9a-f]+\\.\\d+(\\.tmp)?");
+
+    /**
+     * Notified once opening the cache has finished.
+     */
+    public interface OnOpenListener {
+        /**
+         * Called in the thread that opened the cache.
+         *
+         * @param opened
+         *            {@code false} if the cache could not be opened, in which
+         *            case it stays empty.
+         */
+        void onOpen(DiskCache cache, boolean opened);
+    }
+
+    private final File mDirectory;
+
+    private final int mAppVersion;
+
+    private final long mMaxSize;
+
+    private final int mShardCount;
+
+    private final Executor mExecutor;
+
+    private volatile Executor mHousekeepingExecutor;
+
+    /**
+     * Maintenance tasks, such as opening and clearing, run one at a time in
+     * this order. Guarded by itself.
+     */
+    private final ArrayDeque<Runnable> mMaintenanceTasks;
+
+    private boolean mMaintenanceRunning;
+
+    /**
+     * The number of the current generation. Only accessed by maintenance
+     * tasks.
+     */
+    private int mGeneration;
+
+    /**
+     * The number of times {@link #clear()} has been called. A maintenance
+     * task only installs the cache it opened if the cache has not been
+     * cleared since the task was scheduled. Guarded by {@code this}.
+     */
+    private int mClearCount;
+
+    /**
+     * The number of scheduled tasks that will install the shards, by opening
+     * or clearing the cache. Guarded by {@code this}.
+     */
+    private int mPendingInstalls;
+
+    private volatile Shard[] mShards;
+
+    /**
+     * The entries of the current shards with their sizes. Guarded by itself,
+     * as are {@link #mEvictionPolicy}, {@link #mSize} and
+     * {@link #mEvictionCount}.
+     */
+    private final HashMap<String, Long> mEntries;
+
+    private DiskEvictionPolicy mEvictionPolicy;
+
+    private long mSize;
+
+    private int mEvictionCount;
+
+    private int mPromotionCount;
+
+    private int mDemotionCount;
+
+    /**
+     * Keys of entries read since the lock was last held, so that reads do
+     * not contend for the lock. Applied to {@link #mEvictionPolicy} before
+     * victims are selected.
+     */
+    private final ConcurrentLinkedQueue<String> mPendingHits =
+            new ConcurrentLinkedQueue<String>();
+
+    private final AtomicInteger mPendingHitCount = new AtomicInteger();
+
+    private volatile DiskCache mNextTier;
+
+    /**
+     * Keys of entries waiting to be moved from the next tier to this one.
+     * Guarded by itself.
+     */
+    private final HashSet<String> mPromotions;
+
+    /**
+     * Creates a {@link DiskCache} with a single shard. The cache is empty
+     * until it is opened with {@link #open(OnOpenListener)}.
+     *
+     * @param executor
+     *            the {@link Executor} running disk maintenance, such as
+     *            opening and clearing the cache.
+     */
+    public DiskCache(File directory, int appVersion, long maxSize,
+            Executor executor) {
+        this(directory, appVersion, maxSize, 1, executor);
+    }
+
+    /**
+     * Creates a {@link DiskCache}. The cache is empty until it is opened with
+     * {@link #open(OnOpenListener)}.
+     *
+     * @param maxSize
+     *            the maximum number of bytes held by all shards together.
+     * @param shardCount
+     *            the number of shards. Changing the number of shards discards
+     *            the entries cached with a different number.
+     * @param executor
+     *            the {@link Executor} running disk maintenance, such as
+     *            opening and clearing the cache.
+     */
+    public DiskCache(File directory, int appVersion, long maxSize,
+            int shardCount, Executor executor) {
+        if (directory == null) {
+            throw new NullPointerException("directory is null");
+        }
+        if (executor == null) {
+            throw new NullPointerException("executor is null");
+        }
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("shardCount < 1");
+        }
+        mDirectory = directory;
+        mAppVersion = appVersion;
+        mMaxSize = maxSize;
+        mShardCount = shardCount;
+        mExecutor = executor;
+        mHousekeepingExecutor = executor;
+        mMaintenanceTasks = new ArrayDeque<Runnable>();
+        mEntries = new HashMap<String, Long>();
+        mEvictionPolicy = new LruDiskEvictionPolicy();
+        mPromotions = new HashSet<String>();
+    }
+
+    /**
+     * Sets the tier receiving the entries evicted from this cache, or
+     * {@code null} for none. Lookups and removals also apply to the next
+     * tier.
+     */
+    public void setNextTier(DiskCache next) {
+        for (DiskCache tier = next; tier != null; tier = tier.mNextTier) {
+            if (tier == this) {
+                throw new IllegalArgumentException("Cyclic tiers");
+            }
+        }
+        mNextTier = next;
+    }
+
+    public DiskCache getNextTier() {
+        return mNextTier;
+    }
+
+    /**
+     * Sets the policy choosing the entries to evict. The policy is told about
+     * all current entries, and must not be used by another cache.
+     */
+    public void setEvictionPolicy(DiskEvictionPolicy policy) {
+        if (policy == null) {
+            throw new NullPointerException("policy is null");
+        }
+        synchronized (mEntries) {
+            for (Map.Entry<String, Long> entry : mEntries.entrySet()) {
+                policy.onPut(entry.getKey(), entry.getValue().longValue());
+            }
+            mEvictionPolicy = policy;
+        }
+    }
+
+    /**
+     * Sets the {@link Executor} running housekeeping that nothing waits for,
+     * such as deleting the files of previous generations and moving entries
+     * from the next tier to this one. By default it runs on the
+     * {@link Executor} given to the constructor.
+     */
+    public void setHousekeepingExecutor(Executor executor) {
+        if (executor == null) {
+            throw new NullPointerException("executor is null");
+        }
+        mHousekeepingExecutor = executor;
+    }
+
+    /**
+     * Opens the cache in the background.
+     *
+     * @param listener
+     *            notified once the cache is opened, or {@code null}.
+     */
+    public void open(final OnOpenListener listener) {
+        final int clearCount;
+        synchronized (this) {
+            clearCount = mClearCount;
+            mPendingInstalls++;
+        }
+        schedule(new Runnable() {
+            @Override
+            public void run() {
+                boolean opened;
+                try {
+                    mGeneration = findCurrentGeneration();
+                    opened = install(clearCount);
+                } finally {
+                    onInstallFinished();
+                }
+                deleteStaleGenerations(mGeneration);
+                if (listener != null) {
+                    listener.onOpen(DiskCache.this, opened);
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns {@code true} while the cache is open.
+     */
+    public boolean isOpen() {
+        return mShards != null;
+    }
+
+    /**
+     * Waits until the cache is open, if it is being opened or a new generation
+     * is being installed after {@link #clear()}. Meant for writers in the
+     * background, so that entries written meanwhile are not dropped.
+     *
+     * @return {@code true} if the cache is open.
+     */
+    public synchronized boolean awaitOpen(long timeoutMillis)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (mShards == null && mPendingInstalls > 0) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                break;
+            }
+            wait(remaining);
+        }
+        return mShards != null;
+    }
+
+    private synchronized void onInstallFinished() {
+        mPendingInstalls--;
+        notifyAll();
+    }
+
+    public File getDirectory() {
+        return mDirectory;
+    }
+
+    public long getMaxSize() {
+        return mMaxSize;
+    }
+
+    public int getShardCount() {
+        return mShardCount;
+    }
+
+    /**
+     * Returns the shard holding the key, or {@code null} if the cache is not
+     * open.
+     */
+    private Shard getShard(String key) {
+        Shard[] shards = mShards;
+        if (shards == null) {
+            return null;
+        }
+        return shards[(key.hashCode() & Integer.MAX_VALUE) % shards.length];
+    }
+
+    /**
+     * Returns {@code false} if the entry is definitely not cached or the cache
+     * is not open. Does not block.
+     */
+    public boolean mightContain(String key) {
+        Shard shard = getShard(key);
+        if (shard != null && shard.mIndex.mightContain(key)) {
+            return true;
+        }
+        DiskCache next = mNextTier;
+        return next != null && next.mightContain(key);
+    }
+
+    /**
+     * Returns a snapshot of the entry, or {@code null} if it is not cached or
+     * the cache is not open. An entry found in the next tier is moved to this
+     * tier in the background.
+     */
+    public Snapshot get(String key) throws IOException {
+        Snapshot snapshot = getFromShard(key);
+        if (snapshot != null) {
+            if (mPendingHitCount.incrementAndGet() <= MAX_PENDING_HITS) {
+                mPendingHits.offer(key);
+            } else {
+                mPendingHitCount.decrementAndGet();
+            }
+            return snapshot;
+        }
+        DiskCache next = mNextTier;
+        if (next != null) {
+            snapshot = next.get(key);
+            if (snapshot != null) {
+                promote(key);
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Returns {@code true} if this tier or the next holds the entry. Unlike
+     * {@link #get(String)}, this does not count as a use of the entry.
+     */
+    public boolean contains(String key) throws IOException {
+        Snapshot snapshot = getFromShard(key);
+        if (snapshot != null) {
+            snapshot.close();
+            return true;
+        }
+        DiskCache next = mNextTier;
+        return next != null && next.contains(key);
+    }
+
+    /**
+     * Returns a snapshot of an entry of this tier or the next, or {@code null}
+     * if it is not cached. Unlike {@link #get(String)}, this does not count as
+     * a use of the entry, so it is meant for opening an entry again after it
+     * was read with {@link #get(String)}.
+     */
+    public Snapshot reopen(String key) throws IOException {
+        Snapshot snapshot = getFromShard(key);
+        if (snapshot != null) {
+            return snapshot;
+        }
+        DiskCache next = mNextTier;
+        return next != null ? next.reopen(key) : null;
+    }
+
+    private Snapshot getFromShard(String key) throws IOException {
+        Shard shard = getShard(key);
+        if (shard == null) {
+            return null;
+        }
+        if (!shard.mIndex.mightContain(key)) {
+            shard.mSkipped.incrementAndGet();
+            return null;
+        }
+        long start = shard.enter();
+        try {
+            return shard.mCache.get(key);
+        } finally {
+            shard.exit(start);
+        }
+    }
+
+    /**
+     * Returns the data of an entry read with {@link #get(String)}.
+     */
+    public static InputStream getData(Snapshot snapshot) {
+        return snapshot.getInputStream(DATA_INDEX);
+    }
+
+    /**
+     * Returns the metadata of an entry read with {@link #get(String)}, or an
+     * empty string if the entry has none.
+     */
+    public static String getMetadata(Snapshot snapshot) throws IOException {
+        return snapshot.getString(METADATA_INDEX);
+    }
+
+    /**
+     * Reads the data and metadata of an entry of this tier, or returns
+     * {@code null} if it is not cached.
+     */
+    private StoredEntry read(String key) throws IOException {
+        Snapshot snapshot = getFromShard(key);
+        if (snapshot == null) {
+            return null;
+        }
+        try {
+            return new StoredEntry(IOUtils.toByteArray(getData(snapshot)),
+                    getMetadata(snapshot));
+        } finally {
+            snapshot.close();
+        }
+    }
+
+    /**
+     * Moves an entry from the next tier to this one in the background, with
+     * the housekeeping {@link Executor}, since nothing waits for it.
+     */
+    private void promote(final String key) {
+        synchronized (mPromotions) {
+            if (!mPromotions.add(key)) {
+                return;
+            }
+        }
+        mHousekeepingExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (mShards == null) {
+                        // Not open yet, or being cleared.
+                        return;
+                    }
+                    DiskCache next = mNextTier;
+                    StoredEntry entry = next != null ? next.read(key) : null;
+                    if (entry == null) {
+                        return;
+                    }
+                    // Removed first, since writing to this tier may demote
+                    // the entry again right away.
+                    next.remove(key);
+                    if (put(key, entry.mData, entry.mMetadata)) {
+                        synchronized (mEntries) {
+                            mPromotionCount++;
+                        }
+                    } else {
+                        next.put(key, entry.mData, entry.mMetadata);
+                    }
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, "Failed to promote " + key, e);
+                } catch (RuntimeException e) {
+                    Log.w(LOG_TAG, "Failed to promote " + key, e);
+                } finally {
+                    synchronized (mPromotions) {
+                        mPromotions.remove(key);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Writes an entry without metadata.
+     *
+     * @see #put(String, byte[], String)
+     */
+    public boolean put(String key, byte[] data) throws IOException {
+        return put(key, data, null);
+    }
+
+    /**
+     * Writes an entry, and evicts other entries if the cache has grown too
+     * large.
+     *
+     * @param metadata
+     *            a string stored along with the data, or {@code null}.
+     * @return {@code false} if another edit of the entry is in progress or
+     *         the cache is not open.
+     * @throws IllegalStateException
+     *             if the cache was cleared while the entry was written.
+     */
+    public boolean put(String key, byte[] data, String metadata)
+            throws IOException {
+        if (metadata == null) {
+            metadata = "";
+        }
+        Shard[] shards = mShards;
+        if (shards == null) {
+            return false;
+        }
+        Shard shard = shards[(key.hashCode() & Integer.MAX_VALUE)
+                % shards.length];
+        // Added before the entry is written, so that the index never misses
+        // an entry.
+        shard.startWrite(key);
+        try {
+            Editor editor;
+            long start = shard.enter();
+            try {
+                editor = shard.mCache.edit(key);
+            } finally {
+                shard.exit(start);
+            }
+            if (editor == null) {
+                return false;
+            }
+            try {
+                OutputStream out = editor.newOutputStream(DATA_INDEX);
+                try {
+                    out.write(data);
+                } finally {
+                    out.close();
+                }
+                editor.set(METADATA_INDEX, metadata);
+                start = shard.enter();
+                try {
+                    editor.commit();
+                } finally {
+                    shard.exit(start);
+                }
+            } finally {
+                editor.abortUnlessCommitted();
+            }
+            List<String> victims;
+            synchronized (mEntries) {
+                if (mShards != shards) {
+                    // Cleared while the entry was written.
+                    return true;
+                }
+                // Close enough for metadata, which is mostly ASCII.
+                addEntry(key, data.length + metadata.length());
+                victims = selectVictims();
+            }
+            evict(victims);
+        } finally {
+            shard.finishWrite(key);
+        }
+        if (shard.needsRebuild()) {
+            rebuildIndex(shards, shard);
+        }
+        return true;
+    }
+
+    /**
+     * Replaces the index of a shard with one holding only its current
+     * entries and the entries being written.
+     */
+    private void rebuildIndex(Shard[] shards, Shard shard) {
+        List<String> keys = new ArrayList<String>();
+        synchronized (shard) {
+            synchronized (mEntries) {
+                if (mShards != shards) {
+                    return;
+                }
+                for (String key : mEntries.keySet()) {
+                    if (shards[(key.hashCode() & Integer.MAX_VALUE)
+                            % shards.length] == shard) {
+                        keys.add(key);
+                    }
+                }
+            }
+            keys.addAll(shard.mWriting);
+            shard.mIndex = buildIndex(keys, shard.mMaxSize);
+            shard.mRebuildCount++;
+        }
+    }
+
+    /**
+     * Replaces the metadata of an entry, in this tier or the next, without
+     * rewriting its data. The size of the entry is updated, and other entries
+     * are evicted if the cache has grown too large.
+     *
+     * @return {@code false} if the entry is not cached, another edit of the
+     *         entry is in progress or the cache is not open.
+     */
+    public boolean updateMetadata(String key, String metadata)
+            throws IOException {
+        boolean cached;
+        synchronized (mEntries) {
+            cached = mEntries.containsKey(key);
+        }
+        Shard shard = getShard(key);
+        if (!cached || shard == null) {
+            DiskCache next = mNextTier;
+            return next != null && next.updateMetadata(key, metadata);
+        }
+        Editor editor;
+        long start = shard.enter();
+        try {
+            editor = shard.mCache.edit(key);
+        } finally {
+            shard.exit(start);
+        }
+        if (editor == null) {
+            return false;
+        }
+        try {
+            // The data is kept since it is not written.
+            editor.set(METADATA_INDEX, metadata != null ? metadata : "");
+            start = shard.enter();
+            try {
+                editor.commit();
+            } finally {
+                shard.exit(start);
+            }
+        } finally {
+            editor.abortUnlessCommitted();
+        }
+        long size = shard.getEntrySize(key);
+        List<String> victims;
+        synchronized (mEntries) {
+            // Unless removed or cleared while the metadata was written.
+            if (!mEntries.containsKey(key) || getShard(key) != shard) {
+                return true;
+            }
+            addEntry(key, size);
+            victims = selectVictims();
+        }
+        evict(victims);
+        return true;
+    }
+
+    /**
+     * Removes the entry if it exists.
+     */
+    public boolean remove(String key) throws IOException {
+        boolean removed = false;
+        Shard shard = getShard(key);
+        if (shard != null && shard.mIndex.mightContain(key)) {
+            synchronized (mEntries) {
+                removeEntry(key);
+            }
+            long start = shard.enter();
+            try {
+                removed = shard.mCache.remove(key);
+            } finally {
+                shard.exit(start);
+            }
+        }
+        DiskCache next = mNextTier;
+        if (next != null && next.remove(key)) {
+            removed = true;
+        }
+        return removed;
+    }
+
+    /**
+     * Adds or replaces an entry. Called with the lock held.
+     */
+    private void addEntry(String key, long size) {
+        Long previous = mEntries.put(key, Long.valueOf(size));
+        if (previous != null) {
+            mSize -= previous.longValue();
+        }
+        mSize += size;
+        mEvictionPolicy.onPut(key, size);
+    }
+
+    /**
+     * Called with the lock held.
+     */
+    private void removeEntry(String key) {
+        Long size = mEntries.remove(key);
+        if (size != null) {
+            mSize -= size.longValue();
+            mEvictionPolicy.onRemove(key);
+        }
+    }
+
+    /**
+     * Applies the buffered hits to the eviction policy. Called with the lock
+     * held.
+     */
+    private void drainHits() {
+        String key;
+        while ((key = mPendingHits.poll()) != null) {
+            mPendingHitCount.decrementAndGet();
+            mEvictionPolicy.onHit(key);
+        }
+    }
+
+    /**
+     * Removes the entries to evict until the cache fits into its maximum
+     * size. Called with the lock held.
+     *
+     * @return the keys of the removed entries.
+     */
+    private List<String> selectVictims() {
+        drainHits();
+        List<String> victims = null;
+        while (mSize > mMaxSize) {
+            String key = mEvictionPolicy.selectVictim();
+            if (key == null) {
+                break;
+            }
+            if (!mEntries.containsKey(key)) {
+                // Do not loop forever on a policy that returns unknown keys.
+                mEvictionPolicy.onRemove(key);
+                continue;
+            }
+            removeEntry(key);
+            mEvictionCount++;
+            if (victims == null) {
+                victims = new ArrayList<String>();
+            }
+            victims.add(key);
+        }
+        return victims;
+    }
+
+    /**
+     * Removes evicted entries from the shards, and moves them to the next
+     * tier if there is one.
+     */
+    private void evict(List<String> victims) {
+        if (victims == null) {
+            return;
+        }
+        DiskCache next = mNextTier;
+        for (String key : victims) {
+            Shard shard = getShard(key);
+            if (shard == null) {
+                return;
+            }
+            try {
+                StoredEntry entry = next != null ? read(key) : null;
+                long start = shard.enter();
+                try {
+                    shard.mCache.remove(key);
+                } finally {
+                    shard.exit(start);
+                }
+                if (entry != null
+                        && next.put(key, entry.mData, entry.mMetadata)) {
+                    synchronized (mEntries) {
+                        mDemotionCount++;
+                    }
+                }
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Failed to evict " + key, e);
+            } catch (RuntimeException e) {
+                // Also thrown if the next tier was cleared meanwhile.
+                Log.w(LOG_TAG, "Failed to evict " + key, e);
+            }
+        }
+    }
+
+    /**
+     * Deletes all entries. The cache is empty as soon as this method
+     * returns; the files are deleted in the background.
+     */
+    public void clear() {
+        final int clearCount;
+        final Shard[] previous;
+        synchronized (this) {
+            clearCount = ++mClearCount;
+            mPendingInstalls++;
+            previous = mShards;
+            mShards = null;
+        }
+        synchronized (mEntries) {
+            mEntries.clear();
+            mSize = 0;
+            mEvictionPolicy.clear();
+        }
+        schedule(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (previous != null) {
+                        // Aborts edits in progress.
+                        closeQuietly(previous);
+                    }
+                    mGeneration++;
+                    install(clearCount);
+                } finally {
+                    onInstallFinished();
+                }
+                deleteStaleGenerations(mGeneration);
+            }
+        });
+    }
+
+    /**
+     * Returns the number of times the cache has been cleared, so that a writer
+     * can tell whether the cache was cleared after it took an entry to write.
+     */
+    public synchronized int getClearCount() {
+        return mClearCount;
+    }
+
+    /**
+     * Opens the shards of the current generation, and makes them the cache
+     * unless the cache was cleared since the calling task was scheduled.
+     */
+    private boolean install(int clearCount) {
+        File generation = getGenerationDirectory(mGeneration);
+        deleteStaleShards(generation);
+        Shard[] shards = new Shard[mShardCount];
+        long shardSize = Math.max(1, mMaxSize / mShardCount);
+        HashMap<String, Long> entries = new HashMap<String, Long>();
+        for (int i = 0; i < mShardCount; i++) {
+            File directory = new File(generation, getShardName(i));
+            try {
+                DiskLruCache cache = DiskLruCache.open(directory, mAppVersion,
+                        VALUE_COUNT, shardSize * SHARD_SIZE_SLACK);
+                Map<String, Long> shardEntries = listEntries(directory);
+                entries.putAll(shardEntries);
+                shards[i] = new Shard(cache, directory, shardSize,
+                        buildIndex(shardEntries.keySet(), shardSize));
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Failed to open disk cache.", e);
+            } catch (Exception e) {
+                Log.e(LOG_TAG, "Failed to open disk cache.", e);
+            }
+            if (shards[i] == null) {
+                closeQuietly(shards);
+                return false;
+            }
+        }
+        synchronized (this) {
+            if (clearCount == mClearCount) {
+                List<String> victims;
+                synchronized (mEntries) {
+                    mShards = shards;
+                    mEntries.clear();
+                    mSize = 0;
+                    mEvictionPolicy.clear();
+                    for (Map.Entry<String, Long> entry : entries.entrySet()) {
+                        addEntry(entry.getKey(), entry.getValue().longValue());
+                    }
+                    // The maximum size may have been lowered since the cache
+                    // was last open.
+                    victims = selectVictims();
+                }
+                evict(victims);
+                return true;
+            }
+        }
+        // Superseded by a later clear.
+        closeQuietly(shards);
+        return true;
+    }
+
+    private File getGenerationDirectory(int generation) {
+        return new File(mDirectory, GENERATION_PREFIX + generation);
+    }
+
+    /**
+     * Returns the name of a shard's directory. It includes the number of
+     * shards, since keys are spread differently for other numbers.
+     */
+    private String getShardName(int shard) {
+        return SHARD_PREFIX + shard + "of" + mShardCount;
+    }
+
+    /**
+     * Returns the keys and sizes of the entries of an opened shard, from its
+     * entry files, which are named after their keys.
+     */
+    private static Map<String, Long> listEntries(File directory) {
+        HashMap<String, Long> entries = new HashMap<String, Long>();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Matcher matcher = ENTRY_FILE_PATTERN.matcher(file.getName());
+                if (matcher.matches()) {
+                    String key = matcher.group(1);
+                    Long size = entries.get(key);
+                    entries.put(key, Long.valueOf(file.length()
+                            + (size != null ? size.longValue() : 0)));
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Builds the index of a shard from the keys it holds.
+     */
+    private static BloomFilter buildIndex(Collection<String> keys,
+            long shardSize) {
+        int expected = (int) Math.min(Integer.MAX_VALUE / 2,
+                Math.max(MIN_INDEX_SIZE, shardSize / MIN_ENTRY_SIZE));
+        BloomFilter index = new BloomFilter(Math.max(expected,
+                keys.size() * 2));
+        for (String key : keys) {
+            index.add(key);
+        }
+        return index;
+    }
+
+    /**
+     * Deletes everything in a generation but the current shards, such as the
+     * shards of a different number or a cache written directly into the
+     * generation by earlier versions, in the background.
+     */
+    private void deleteStaleShards(File generation) {
+        File[] files = generation.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            boolean current = false;
+            for (int i = 0; i < mShardCount && !current; i++) {
+                current = name.equals(getShardName(i));
+            }
+            if (!current) {
+                deleteInBackground(file);
+            }
+        }
+    }
+
+    private static int parseGeneration(String name) {
+        if (!name.startsWith(GENERATION_PREFIX)) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(name.substring(GENERATION_PREFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private int findCurrentGeneration() {
+        int current = 0;
+        String[] names = mDirectory.list();
+        if (names != null) {
+            for (String name : names) {
+                current = Math.max(current, parseGeneration(name));
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Deletes the generations older than the given one, as well as a cache
+     * written directly into the directory by earlier versions, in the
+     * background. Newer generations are kept, since the cache may have been
+     * cleared again meanwhile.
+     */
+    private void deleteStaleGenerations(final int current) {
+        mHousekeepingExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                File[] files = mDirectory.listFiles();
+                if (files == null) {
+                    return;
+                }
+                for (File file : files) {
+                    String name = file.getName();
+                    int generation = parseGeneration(name);
+                    if ((generation >= 0 && generation < current)
+                            || (file.isFile() && LEGACY_FILE_PATTERN.matcher(
+                                    name).matches())) {
+                        deleteRecursively(file);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Deletes a file or directory in the background.
+     */
+    private void deleteInBackground(final File file) {
+        mHousekeepingExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                deleteRecursively(file);
+            }
+        });
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        if (!file.delete() && file.exists()) {
+            Log.w(LOG_TAG, "Failed to delete " + file);
+        }
+    }
+
+    private static void closeQuietly(Shard[] shards) {
+        for (Shard shard : shards) {
+            if (shard == null) {
+                continue;
+            }
+            try {
+                shard.mCache.close();
+            } catch (IOException ignored) {
+            } catch (RuntimeException ignored) {
+            }
+        }
+    }
+
+    private void schedule(Runnable task) {
+        synchronized (mMaintenanceTasks) {
+            mMaintenanceTasks.offerLast(task);
+            if (mMaintenanceRunning) {
+                return;
+            }
+            mMaintenanceRunning = true;
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                runMaintenanceTasks();
+            }
+        });
+    }
+
+    private void runMaintenanceTasks() {
+        while (true) {
+            Runnable task;
+            synchronized (mMaintenanceTasks) {
+                task = mMaintenanceTasks.pollFirst();
+                if (task == null) {
+                    mMaintenanceRunning = false;
+                    return;
+                }
+            }
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                Log.e(LOG_TAG, "Disk cache maintenance failed.", e);
+            }
+        }
+    }
+
+    /**
+     * Returns the size, the number of entries and evictions, and for each
+     * shard of the current generation the number of operations, the number
+     * of contended operations and the time spent in operations. An operation
+     * is contended if it started while another operation was in progress in
+     * the same shard, in which case it waited for the shard's lock. Lookups
+     * answered by the index alone are counted separately.
+     */
+    @Override
+    public String toString() {
+        Shard[] shards = mShards;
+        StringBuilder builder = new StringBuilder("DiskCache[size=");
+        synchronized (mEntries) {
+            builder.append(mSize).append(",entries=").append(mEntries.size())
+                    .append(",evictions=").append(mEvictionCount);
+            if (mNextTier != null) {
+                builder.append(",promotions=").append(mPromotionCount)
+                        .append(",demotions=").append(mDemotionCount);
+            }
+        }
+        builder.append(",maxSize=").append(mMaxSize).append(",shards=")
+                .append(mShardCount).append(",open=").append(shards != null);
+        if (shards != null) {
+            for (int i = 0; i < shards.length; i++) {
+                builder.append(',').append(i).append('=').append(shards[i]);
+            }
+        }
+        return builder.append(']').toString();
+    }
+
+    /**
+     * The values of an entry read into memory, to move it between tiers.
+     */
+    private static final class StoredEntry {
+
+        final byte[] mData;
+
+        final String mMetadata;
+
+        StoredEntry(byte[] data, String metadata) {
+            mData = data;
+            mMetadata = metadata;
+        }
+
+    }
+
+    /**
+     * A {@link DiskLruCache} holding a share of the keys, with statistics on
+     * how often threads accessed it concurrently.
+     */
+    private static final class Shard {
+
+        final DiskLruCache mCache;
+
+        final File mDirectory;
+
+        /**
+         * The maximum number of bytes of the shard's share, which the index is
+         * sized for.
+         */
+        final long mMaxSize;
+
+        /**
+         * The keys that may be cached. Evicted keys are not removed, so the
+         * index is rebuilt once it has been filled. Replaced with the lock of
+         * the shard held.
+         */
+        volatile BloomFilter mIndex;
+
+        /**
+         * The keys being written, which must be kept when the index is
+         * rebuilt. Guarded by the shard, as is {@link #mRebuildCount}.
+         */
+        final List<String> mWriting = new ArrayList<String>();
+
+        int mRebuildCount;
+
+        /**
+         * The number of lookups answered by the index alone.
+         */
+        final AtomicLong mSkipped = new AtomicLong();
+
+        private final AtomicInteger mActive = new AtomicInteger();
+
+        private final AtomicLong mOperations = new AtomicLong();
+
+        private final AtomicLong mContended = new AtomicLong();
+
+        private final AtomicLong mBusyNanos = new AtomicLong();
+
+        Shard(DiskLruCache cache, File directory, long maxSize,
+                BloomFilter index) {
+            mCache = cache;
+            mDirectory = directory;
+            mMaxSize = maxSize;
+            mIndex = index;
+        }
+
+        synchronized void startWrite(String key) {
+            mWriting.add(key);
+            mIndex.add(key);
+        }
+
+        synchronized void finishWrite(String key) {
+            mWriting.remove(key);
+        }
+
+        /**
+         * Returns the size of the files of an entry, as counted by
+         * {@link DiskCache#listEntries(File)}.
+         */
+        long getEntrySize(String key) {
+            long size = 0;
+            for (int i = 0; i < VALUE_COUNT; i++) {
+                size += new File(mDirectory, key + "." + i).length();
+            }
+            return size;
+        }
+
+        /**
+         * Returns {@code true} once more keys have been added to the index
+         * than it was sized for, after which it answers {@code true} for
+         * more and more keys that are not cached.
+         */
+        boolean needsRebuild() {
+            BloomFilter index = mIndex;
+            return index.count() > index.getExpectedCount();
+        }
+
+        /**
+         * Called before an operation. Returns the start time to pass to
+         * {@link #exit(long)}.
+         */
+        long enter() {
+            mOperations.incrementAndGet();
+            if (mActive.getAndIncrement() > 0) {
+                mContended.incrementAndGet();
+            }
+            return System.nanoTime();
+        }
+
+        void exit(long start) {
+            mBusyNanos.addAndGet(System.nanoTime() - start);
+            mActive.decrementAndGet();
+        }
+
+        @Override
+        public String toString() {
+            long operations = mOperations.get();
+            long contended = mContended.get();
+            int contendedPercent = operations != 0 ? (int) (100 * contended
+                    / operations) : 0;
+            int rebuilds;
+            synchronized (this) {
+                rebuilds = mRebuildCount;
+            }
+            return String.format(
+                    "{size=%d,ops=%d,contended=%d%%,busy=%dms,skipped=%d,indexed=%d,rebuilds=%d}",
+                    mCache.size(), operations, contendedPercent,
+                    mBusyNanos.get() / 1000000, mSkipped.get(), mIndex.count(),
+                    rebuilds);
+        }
+
+    }
+
+}
@@ -0,0 +1,335 @@
+package com.wuman.androidimageloader.cache;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Writes entries to a {@link DiskCache} in the background, so that the thread
+ * that fetched an entry can move on without waiting for the file to be
+ * written and committed.
+ * <p>
+ * Entries are written by a dedicated thread of low priority, which is started
+ * when needed and stops when it has been idle for a while. Writes are
+ * collected for a short time and then written one after another, so that
+ * disk writes come in bursts rather than competing with every fetch. A write
+ * replaces a pending write of the same key, so an entry fetched repeatedly is
+ * written once. Each entry is still committed on its own, since a
+ * {@link DiskCache} journals every edit separately. Writes that would exceed
+ * the maximum number of pending bytes are dropped, since the entry can always
+ * be fetched again, unless nothing else is pending, so that an entry larger
+ * than the maximum is still written. Writes scheduled before the cache was
+ * cleared are dropped as well.
+ * <p>
+ * Pending entries can be read with {@link #get(String)} until they are on
+ * disk.
+ */
+public class DiskCacheWriter {
+
+    private static final String LOG_TAG = DiskCacheWriter.class
+            .getSimpleName();
+
+    /**
+     * How long writes are collected before they are written.
+     */
+    private static final long BATCH_DELAY_MILLIS = 500;
+
+    /**
+     * How long a write waits for the cache to be opened, or for a new
+     * generation to be installed after it was cleared.
+     */
+    private static final long OPEN_TIMEOUT_MILLIS = 10 * 1000;
+
+    /**
+     * How long the writer thread waits for writes before it stops.
+     */
+    private static final long IDLE_MILLIS = 30 * 1000;
+
+    private final DiskCache mCache;
+
+    /**
+     * Pending entries in the order they were first written. An entry stays
+     * here while it is being written. Guarded by {@code this}, as are all
+     * other fields.
+     */
+    private final LinkedHashMap<String, PendingWrite> mPending;
+
+    private long mMaxPendingBytes;
+
+    private long mPendingBytes;
+
+    private Thread mThread;
+
+    /**
+     * The time at which the current batch is written.
+     */
+    private long mBatchTime;
+
+    /**
+     * {@code true} while a batch is being written. Entries added meanwhile
+     * are written with it.
+     */
+    private boolean mDraining;
+
+    private int mWriteCount;
+
+    private int mCoalesceCount;
+
+    private int mDropCount;
+
+    private int mFailureCount;
+
+    /**
+     * Creates a {@link DiskCacheWriter}.
+     *
+     * @param maxPendingBytes
+     *            the maximum number of bytes waiting to be written.
+     */
+    public DiskCacheWriter(DiskCache cache, long maxPendingBytes) {
+        if (cache == null) {
+            throw new NullPointerException("cache is null");
+        }
+        if (maxPendingBytes < 0) {
+            throw new IllegalArgumentException("maxPendingBytes < 0");
+        }
+        mCache = cache;
+        mMaxPendingBytes = maxPendingBytes;
+        mPending = new LinkedHashMap<String, PendingWrite>();
+    }
+
+    /**
+     * Schedules an entry to be written. The caller must not modify the data
+     * afterwards.
+     *
+     * @param metadata
+     *            the metadata of the entry, or {@code null}.
+     * @return {@code false} if the write was dropped because too many bytes
+     *         are pending.
+     * @see DiskCache#put(String, byte[], String)
+     */
+    public synchronized boolean write(String key, byte[] data, String metadata) {
+        PendingWrite previous = mPending.get(key);
+        long added = data.length
+                - (previous != null ? previous.mData.length : 0);
+        int others = mPending.size() - (previous != null ? 1 : 0);
+        if (mPendingBytes + added > mMaxPendingBytes && others > 0) {
+            mDropCount++;
+            return false;
+        }
+        if (mPending.isEmpty() && !mDraining) {
+            mBatchTime = now() + BATCH_DELAY_MILLIS;
+        }
+        mPending.put(key,
+                new PendingWrite(data, metadata, mCache.getClearCount()));
+        mPendingBytes += added;
+        if (previous != null) {
+            mCoalesceCount++;
+        }
+        if (mThread == null) {
+            mThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    runWriter();
+                }
+            }, "ImageLoader disk writer");
+            mThread.start();
+        } else {
+            notifyAll();
+        }
+        return true;
+    }
+
+    /**
+     * Sets the maximum number of bytes waiting to be written. Writes already
+     * pending are kept.
+     */
+    public synchronized void setMaxPendingBytes(long maxPendingBytes) {
+        if (maxPendingBytes < 0) {
+            throw new IllegalArgumentException("maxPendingBytes < 0");
+        }
+        mMaxPendingBytes = maxPendingBytes;
+    }
+
+    /**
+     * Returns the data of a pending entry, or {@code null} if there is none.
+     */
+    public synchronized byte[] get(String key) {
+        PendingWrite write = mPending.get(key);
+        return write != null ? write.mData : null;
+    }
+
+    /**
+     * Cancels a pending write. An entry that is being written is still
+     * written.
+     */
+    public synchronized void remove(String key) {
+        PendingWrite write = mPending.remove(key);
+        if (write != null) {
+            mPendingBytes -= write.mData.length;
+        }
+    }
+
+    /**
+     * Cancels all pending writes.
+     */
+    public synchronized void clear() {
+        mPending.clear();
+        mPendingBytes = 0;
+    }
+
+    /**
+     * Drops all pending writes to free their memory. Called when memory is
+     * low.
+     */
+    public synchronized void trim() {
+        mDropCount += mPending.size();
+        clear();
+    }
+
+    /**
+     * Writes all pending entries without further delay. Does not wait for
+     * the writes to finish.
+     */
+    public synchronized void flush() {
+        if (!mPending.isEmpty()) {
+            mDraining = true;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Returns the current time in milliseconds, used to time batches.
+     */
+    long now() {
+        return SystemClock.uptimeMillis();
+    }
+
+    /**
+     * Lowers the priority of the writer thread. Called on the writer thread.
+     */
+    void lowerThreadPriority() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND
+                + Process.THREAD_PRIORITY_LESS_FAVORABLE);
+    }
+
+    private void runWriter() {
+        lowerThreadPriority();
+        while (true) {
+            String key;
+            PendingWrite write;
+            synchronized (this) {
+                if (!awaitWork()) {
+                    mThread = null;
+                    return;
+                }
+                Iterator<Map.Entry<String, PendingWrite>> it = mPending
+                        .entrySet().iterator();
+                Map.Entry<String, PendingWrite> entry = it.next();
+                key = entry.getKey();
+                write = entry.getValue();
+            }
+            boolean written = writeEntry(key, write);
+            synchronized (this) {
+                // Keep the entry if it was replaced while being written.
+                if (mPending.get(key) == write) {
+                    mPending.remove(key);
+                    mPendingBytes -= write.mData.length;
+                }
+                if (written) {
+                    mWriteCount++;
+                } else {
+                    mFailureCount++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits until the next batch is due. Called with the lock held.
+     *
+     * @return {@code false} if the thread has been idle for too long and
+     *         should stop.
+     */
+    private boolean awaitWork() {
+        boolean idle = false;
+        while (true) {
+            if (!mPending.isEmpty()) {
+                long delay = mBatchTime - now();
+                if (mDraining || delay <= 0) {
+                    mDraining = true;
+                    return true;
+                }
+                waitQuietly(delay);
+                idle = false;
+            } else if (idle) {
+                return false;
+            } else {
+                mDraining = false;
+                waitQuietly(IDLE_MILLIS);
+                idle = true;
+            }
+        }
+    }
+
+    private void waitQuietly(long millis) {
+        try {
+            wait(millis);
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    private boolean writeEntry(String key, PendingWrite write) {
+        try {
+            // Not dropped while the cache is being opened or cleared.
+            mCache.awaitOpen(OPEN_TIMEOUT_MILLIS);
+            if (mCache.getClearCount() != write.mClearCount) {
+                // Taken before the cache was cleared.
+                return false;
+            }
+            // Fails if another edit is in progress or the cache is not open.
+            return mCache.put(key, write.mData, write.mMetadata);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Failed to put Bitmap on disk.", e);
+        } catch (InterruptedException e) {
+            Log.w(LOG_TAG, "Failed to put Bitmap on disk.", e);
+        } catch (Exception e) {
+            // Also thrown if the cache was cleared during the edit.
+            Log.w(LOG_TAG, "Failed to put Bitmap on disk.", e);
+        }
+        return false;
+    }
+
+    private static final class PendingWrite {
+
+        final byte[] mData;
+
+        final String mMetadata;
+
+        /**
+         * The number of times the cache had been cleared when the write was
+         * scheduled.
+         */
+        final int mClearCount;
+
+        PendingWrite(byte[] data, String metadata, int clearCount) {
+            mData = data;
+            mMetadata = metadata;
+            mClearCount = clearCount;
+        }
+
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(
+                "DiskCacheWriter[pending=%d,pendingBytes=%d,writes=%d,coalesced=%d,dropped=%d,failures=%d]",
+                mPending.size(), mPendingBytes, mWriteCount, mCoalesceCount,
+                mDropCount, mFailureCount);
+    }
+
+}
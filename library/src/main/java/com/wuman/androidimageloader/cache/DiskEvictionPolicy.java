@@ -0,0 +1,40 @@
+package com.wuman.androidimageloader.cache;
+
+/**
+ * Chooses which entries a {@link DiskCache} evicts when it grows beyond its
+ * maximum size.
+ * <p>
+ * A policy belongs to a single cache. Its methods are called with a lock held,
+ * so implementations need not be thread-safe, but they should be quick.
+ */
+public interface DiskEvictionPolicy {
+
+    /**
+     * Called when an entry is added or replaced. Entries found when the cache
+     * is opened are added in no particular order.
+     */
+    void onPut(String key, long size);
+
+    /**
+     * Called when an entry is read.
+     */
+    void onHit(String key);
+
+    /**
+     * Called when an entry is removed or evicted.
+     */
+    void onRemove(String key);
+
+    /**
+     * Returns the key of the entry to evict next, or {@code null} if there
+     * are no entries. The entry is removed with {@link #onRemove(String)}
+     * once it has been evicted.
+     */
+    String selectVictim();
+
+    /**
+     * Removes all entries.
+     */
+    void clear();
+
+}
@@ -0,0 +1,582 @@
+package com.wuman.androidimageloader.cache;
+
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import android.os.MemoryFile;
+import android.util.Log;
+
+/**
+ * A memory cache of encoded images, kept between the cache of decoded bitmaps
+ * and the {@link DiskCache}, so that an image evicted from the bitmap cache is
+ * decoded from memory instead of being read from flash again. Encoded images
+ * are many times smaller than their bitmaps, so this cache holds many more
+ * images for the same number of bytes.
+ * <p>
+ * Images are held in a single {@link MemoryFile}, which is shared memory
+ * (ashmem) outside of the Java heap, so the cache does not count against the
+ * heap limit of the application. The file is split into pages, and each image
+ * takes as many pages as it needs; its size is counted in whole pages. When
+ * the cache exceeds its maximum size, the least recently used images are
+ * evicted. A maximum size of {@code 0} disables the cache.
+ * <p>
+ * Images are read through {@link Entry#newInputStream()}. The pages of an
+ * image are only reused once it has been evicted and every
+ * {@link Entry#acquire()} has been matched with {@link Entry#release()}.
+ */
+public class EncodedMemoryCache {
+
+    private static final String LOG_TAG = EncodedMemoryCache.class
+            .getSimpleName();
+
+    private static final int DEFAULT_PAGE_SIZE = 4096;
+
+    /**
+     * The memory holding the pages of the images.
+     */
+    interface Store {
+
+        void write(int offset, byte[] buffer, int bufferOffset, int count)
+                throws IOException;
+
+        void read(int offset, byte[] buffer, int bufferOffset, int count)
+                throws IOException;
+
+        void close();
+    }
+
+    private static final class MemoryFileStore implements Store {
+
+        private final MemoryFile mFile;
+
+        MemoryFileStore(int size) throws IOException {
+            mFile = new MemoryFile(EncodedMemoryCache.class.getSimpleName(),
+                    size);
+        }
+
+        @Override
+        public void write(int offset, byte[] buffer, int bufferOffset,
+                int count) throws IOException {
+            mFile.writeBytes(buffer, bufferOffset, offset, count);
+        }
+
+        @Override
+        public void read(int offset, byte[] buffer, int bufferOffset, int count)
+                throws IOException {
+            mFile.readBytes(buffer, offset, bufferOffset, count);
+        }
+
+        @Override
+        public void close() {
+            mFile.close();
+        }
+    }
+
+    /**
+     * A {@link Store} with the pages not taken by an image. Once retired, it
+     * hands out no more pages, and is closed when its last page is freed.
+     */
+    private static final class Arena {
+
+        final Store mStore;
+
+        final int mPageSize;
+
+        /**
+         * The free pages, as a stack. Guarded by the arena.
+         */
+        private final int[] mFreePages;
+
+        private int mFreeCount;
+
+        private boolean mRetired;
+
+        Arena(Store store, int pageSize, int pageCount) {
+            mStore = store;
+            mPageSize = pageSize;
+            mFreePages = new int[pageCount];
+            for (int i = 0; i < pageCount; i++) {
+                mFreePages[i] = pageCount - 1 - i;
+            }
+            mFreeCount = pageCount;
+        }
+
+        /**
+         * Returns the numbers of the taken pages, or {@code null} if not
+         * enough pages are free.
+         */
+        synchronized int[] allocate(int count) {
+            if (mRetired || count > mFreeCount) {
+                return null;
+            }
+            int[] pages = new int[count];
+            for (int i = 0; i < count; i++) {
+                pages[i] = mFreePages[--mFreeCount];
+            }
+            return pages;
+        }
+
+        synchronized void free(int[] pages) {
+            for (int page : pages) {
+                mFreePages[mFreeCount++] = page;
+            }
+            closeIfUnused();
+        }
+
+        synchronized void retire() {
+            mRetired = true;
+            closeIfUnused();
+        }
+
+        private void closeIfUnused() {
+            if (mRetired && mFreeCount == mFreePages.length) {
+                mStore.close();
+            }
+        }
+    }
+
+    /**
+     * An encoded image and its metadata.
+     */
+    public static final class Entry {
+
+        private final Arena mArena;
+
+        private final int[] mPages;
+
+        private final int mLength;
+
+        private volatile String mMetadata;
+
+        /**
+         * The number of holders of the pages, counting the cache itself.
+         * Guarded by the entry.
+         */
+        private int mReferences = 1;
+
+        Entry(Arena arena, int[] pages, int length, String metadata) {
+            mArena = arena;
+            mPages = pages;
+            mLength = length;
+            mMetadata = metadata;
+        }
+
+        public int getLength() {
+            return mLength;
+        }
+
+        /**
+         * Returns the metadata of the image, or {@code null}.
+         */
+        public String getMetadata() {
+            return mMetadata;
+        }
+
+        /**
+         * Keeps the image in memory until {@link #release()} is called, even
+         * if it is evicted in the meantime.
+         *
+         * @return {@code false} if the image has been evicted and its memory
+         *         reused already.
+         */
+        public synchronized boolean acquire() {
+            if (mReferences == 0) {
+                return false;
+            }
+            mReferences++;
+            return true;
+        }
+
+        public void release() {
+            synchronized (this) {
+                if (--mReferences > 0) {
+                    return;
+                }
+            }
+            mArena.free(mPages);
+        }
+
+        /**
+         * Returns a new stream of the image, positioned at its start. The
+         * image must be held with {@link #acquire()} while it is read.
+         */
+        public InputStream newInputStream() {
+            return new PageInputStream(this);
+        }
+
+        void write(int offset, byte[] buffer, int bufferOffset, int count)
+                throws IOException {
+            Arena arena = mArena;
+            while (count > 0) {
+                int pageOffset = offset % arena.mPageSize;
+                int n = Math.min(count, arena.mPageSize - pageOffset);
+                arena.mStore.write(mPages[offset / arena.mPageSize]
+                        * arena.mPageSize + pageOffset, buffer, bufferOffset,
+                        n);
+                offset += n;
+                bufferOffset += n;
+                count -= n;
+            }
+        }
+
+        /**
+         * Reads no further than the end of the page holding the offset.
+         *
+         * @return the number of bytes read.
+         */
+        int read(int offset, byte[] buffer, int bufferOffset, int count)
+                throws IOException {
+            Arena arena = mArena;
+            int pageOffset = offset % arena.mPageSize;
+            int n = Math.min(Math.min(count, mLength - offset),
+                    arena.mPageSize - pageOffset);
+            arena.mStore.read(mPages[offset / arena.mPageSize]
+                    * arena.mPageSize + pageOffset, buffer, bufferOffset, n);
+            return n;
+        }
+
+    }
+
+    private static final class PageInputStream extends InputStream {
+
+        private final Entry mEntry;
+
+        private final byte[] mByte = new byte[1];
+
+        private int mPosition;
+
+        private int mMark;
+
+        PageInputStream(Entry entry) {
+            mEntry = entry;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return read(mByte, 0, 1) < 0 ? -1 : mByte[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (mPosition >= mEntry.mLength) {
+                return -1;
+            }
+            int total = 0;
+            while (total < len && mPosition < mEntry.mLength) {
+                int n = mEntry.read(mPosition, b, off + total, len - total);
+                mPosition += n;
+                total += n;
+            }
+            return total;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.max(0,
+                    Math.min(n, mEntry.mLength - mPosition));
+            mPosition += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return mEntry.mLength - mPosition;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public void mark(int readLimit) {
+            mMark = mPosition;
+        }
+
+        @Override
+        public void reset() {
+            mPosition = mMark;
+        }
+    }
+
+    private final StripedLruCache<String, Entry> mEntries;
+
+    private final int mPageSize;
+
+    private volatile long mMaxSize;
+
+    /**
+     * Created when the first image is cached, and replaced when the maximum
+     * size changes. Guarded by the cache.
+     */
+    private Arena mArena;
+
+    public EncodedMemoryCache(long maxSize) {
+        this(maxSize, DEFAULT_PAGE_SIZE);
+    }
+
+    EncodedMemoryCache(long maxSize, int pageSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("maxSize < 0");
+        }
+        mPageSize = pageSize;
+        mMaxSize = maxSize;
+        mEntries = new StripedLruCache<String, Entry>(Math.max(1,
+                getCapacity(maxSize))) {
+            @Override
+            protected int sizeOf(String key, Entry value) {
+                return value.mPages.length * mPageSize;
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key,
+                    Entry oldValue, Entry newValue) {
+                oldValue.release();
+            }
+        };
+    }
+
+    /**
+     * Creates the memory holding the pages. Overridden by tests, which do not
+     * run on Android.
+     */
+    Store newStore(int size) throws IOException {
+        return new MemoryFileStore(size);
+    }
+
+    /**
+     * Returns the number of bytes of the pages fitting into the maximum size.
+     */
+    private int getCapacity(long maxSize) {
+        return (int) (Math.min(maxSize, Integer.MAX_VALUE) / mPageSize)
+                * mPageSize;
+    }
+
+    private int getPageCount(long length) {
+        return (int) ((length + mPageSize - 1) / mPageSize);
+    }
+
+    private synchronized Arena getArena() {
+        if (mArena == null) {
+            int capacity = getCapacity(mMaxSize);
+            try {
+                mArena = new Arena(newStore(capacity), mPageSize, capacity
+                        / mPageSize);
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Failed to allocate shared memory.", e);
+            } catch (RuntimeException e) {
+                Log.w(LOG_TAG, "Failed to allocate shared memory.", e);
+            }
+        }
+        return mArena;
+    }
+
+    public boolean isEnabled() {
+        return mMaxSize > 0;
+    }
+
+    /**
+     * Returns {@code true} if an image of the given size would be cached.
+     * Images larger than the whole cache are not.
+     */
+    private boolean accepts(long length) {
+        return length > 0
+                && getPageCount(length) * (long) mPageSize <= getCapacity(mMaxSize);
+    }
+
+    /**
+     * Takes the pages for an image, evicting other images to make room.
+     *
+     * @return the entry, with nothing written yet, or {@code null} if the
+     *         pages could not be taken.
+     */
+    private Entry allocate(String key, int length, String metadata) {
+        Arena arena = getArena();
+        if (arena == null) {
+            return null;
+        }
+        int pageCount = getPageCount(length);
+        // The previous image is not kept while the new one is written.
+        mEntries.remove(key);
+        mEntries.trimToSize(getCapacity(mMaxSize) - pageCount
+                * (long) mPageSize);
+        int[] pages = arena.allocate(pageCount);
+        // Pages of evicted images still being read are not free yet.
+        return pages != null ? new Entry(arena, pages, length, metadata)
+                : null;
+    }
+
+    /**
+     * Caches a copy of an encoded image.
+     *
+     * @param metadata
+     *            the metadata of the image, or {@code null}.
+     * @return the cached entry, or {@code null} if the image was not cached.
+     */
+    public Entry put(String key, byte[] data, String metadata) {
+        if (!accepts(data.length)) {
+            return null;
+        }
+        Entry entry = allocate(key, data.length, metadata);
+        if (entry == null) {
+            return null;
+        }
+        try {
+            entry.write(0, data, 0, data.length);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Failed to write to shared memory.", e);
+            entry.release();
+            return null;
+        }
+        mEntries.put(key, entry);
+        return entry;
+    }
+
+    /**
+     * Caches an encoded image read from a file, through a buffer of one page.
+     * The offset of the file descriptor is not changed.
+     *
+     * @param metadata
+     *            the metadata of the image, or {@code null}.
+     * @return the cached entry, or {@code null} if the image was not cached.
+     */
+    public Entry put(String key, FileInputStream input, String metadata)
+            throws IOException {
+        FileChannel channel = input.getChannel();
+        long length = channel.size();
+        if (!accepts(length) || length > Integer.MAX_VALUE) {
+            return null;
+        }
+        Entry entry = allocate(key, (int) length, metadata);
+        if (entry == null) {
+            return null;
+        }
+        boolean written = false;
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(mPageSize);
+            int position = 0;
+            while (position < length) {
+                buffer.clear();
+                buffer.limit((int) Math.min(mPageSize, length - position));
+                int n = channel.read(buffer, position);
+                if (n < 0) {
+                    throw new EOFException("File truncated while reading");
+                }
+                entry.write(position, buffer.array(), 0, n);
+                position += n;
+            }
+            written = true;
+        } finally {
+            if (!written) {
+                entry.release();
+            }
+        }
+        mEntries.put(key, entry);
+        return entry;
+    }
+
+    /**
+     * Returns the cached image, or {@code null} if it is not cached. The
+     * image must be held with {@link Entry#acquire()} to be read.
+     */
+    public Entry get(String key) {
+        return isEnabled() ? mEntries.get(key) : null;
+    }
+
+    /**
+     * Returns {@code true} if the image is cached. Does not count as a use
+     * of the image.
+     */
+    public boolean contains(String key) {
+        return isEnabled() && mEntries.containsKey(key);
+    }
+
+    /**
+     * Replaces the metadata of a cached image, which counts as a use of the
+     * image. Does nothing if it is not cached.
+     */
+    public void updateMetadata(String key, String metadata) {
+        if (isEnabled()) {
+            Entry entry = mEntries.get(key);
+            if (entry != null) {
+                entry.mMetadata = metadata;
+            }
+        }
+    }
+
+    public void remove(String key) {
+        mEntries.remove(key);
+    }
+
+    public void evictAll() {
+        mEntries.evictAll();
+    }
+
+    public long size() {
+        return mEntries.size();
+    }
+
+    public long getMaxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * Sets the maximum number of bytes held by the cache. Since the shared
+     * memory cannot be resized, all images are evicted and new memory is
+     * allocated when the next image is cached. {@code 0} disables the cache.
+     */
+    public void setMaxSize(long maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("maxSize < 0");
+        }
+        synchronized (this) {
+            if (maxSize == mMaxSize) {
+                return;
+            }
+            mMaxSize = maxSize;
+        }
+        mEntries.setMaxSize(Math.max(1, getCapacity(maxSize)));
+        releaseMemory();
+    }
+
+    /**
+     * Evicts all images and gives the shared memory back to the system once
+     * images still being read are released. New memory is allocated when the
+     * next image is cached.
+     */
+    public void releaseMemory() {
+        Arena arena;
+        synchronized (this) {
+            arena = mArena;
+            mArena = null;
+        }
+        mEntries.evictAll();
+        if (arena != null) {
+            arena.retire();
+        }
+    }
+
+    public void clearStats() {
+        mEntries.clearStats();
+    }
+
+    @Override
+    public String toString() {
+        int hits = mEntries.hitCount();
+        int misses = mEntries.missCount();
+        int accesses = hits + misses;
+        int hitPercent = accesses != 0 ? (100 * hits / accesses) : 0;
+        return String.format(
+                "EncodedMemoryCache[size=%d,maxSize=%d,hits=%d,misses=%d,hitRate=%d%%,evictions=%d]",
+                mEntries.size(), mMaxSize, hits, misses, hitPercent,
+                mEntries.evictionCount());
+    }
+
+}
@@ -0,0 +1,114 @@
+package com.wuman.androidimageloader.cache;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.TreeSet;
+
+/**
+ * Greedy-Dual-Size-Frequency eviction. Each entry has a priority of
+ * {@code L + hits / size}, and the entry with the lowest priority is evicted
+ * first. {@code L} starts at zero and is raised to the priority of each
+ * evicted entry, so that entries which have not been read for a while age and
+ * are eventually evicted, however often they were read before.
+ * <p>
+ * Small entries that are read often are kept in favor of large entries that
+ * are read rarely. This keeps more entries in the cache than LRU, at the cost
+ * of caching fewer bytes.
+ */
+public class GdsfDiskEvictionPolicy implements DiskEvictionPolicy {
+
+    private static final class Entry {
+        final String mKey;
+        final long mSize;
+        final long mSequence;
+        int mHits;
+        double mPriority;
+
+        Entry(String key, long size, long sequence) {
+            mKey = key;
+            mSize = Math.max(1, size);
+            mSequence = sequence;
+        }
+    }
+
+    private static final Comparator<Entry> PRIORITY_ORDER = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry lhs, Entry rhs) {
+            int result = Double.compare(lhs.mPriority, rhs.mPriority);
+            if (result != 0) {
+                return result;
+            }
+            // Evict the older of two entries of the same priority.
+            return lhs.mSequence < rhs.mSequence ? -1
+                    : (lhs.mSequence > rhs.mSequence ? 1 : 0);
+        }
+    };
+
+    private final HashMap<String, Entry> mEntries = new HashMap<String, Entry>();
+
+    /**
+     * The entries ordered by priority, lowest first.
+     */
+    private final TreeSet<Entry> mQueue = new TreeSet<Entry>(PRIORITY_ORDER);
+
+    /**
+     * The inflation value {@code L}.
+     */
+    private double mAge;
+
+    private long mSequence;
+
+    @Override
+    public void onPut(String key, long size) {
+        Entry previous = mEntries.get(key);
+        if (previous != null) {
+            mQueue.remove(previous);
+        }
+        Entry entry = new Entry(key, size, mSequence++);
+        // A replaced entry keeps its hits, and the write counts as one more.
+        entry.mHits = previous != null ? previous.mHits + 1 : 1;
+        prioritize(entry);
+        mEntries.put(key, entry);
+    }
+
+    @Override
+    public void onHit(String key) {
+        Entry entry = mEntries.get(key);
+        if (entry != null) {
+            mQueue.remove(entry);
+            entry.mHits++;
+            prioritize(entry);
+        }
+    }
+
+    private void prioritize(Entry entry) {
+        entry.mPriority = mAge + (double) entry.mHits / entry.mSize;
+        mQueue.add(entry);
+    }
+
+    @Override
+    public void onRemove(String key) {
+        Entry entry = mEntries.remove(key);
+        if (entry != null) {
+            mQueue.remove(entry);
+        }
+    }
+
+    @Override
+    public String selectVictim() {
+        if (mQueue.isEmpty()) {
+            return null;
+        }
+        Entry victim = mQueue.first();
+        mAge = victim.mPriority;
+        return victim.mKey;
+    }
+
+    @Override
+    public void clear() {
+        mEntries.clear();
+        mQueue.clear();
+        mAge = 0;
+    }
+
+}
@@ -0,0 +1,43 @@
+package com.wuman.androidimageloader.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Evicts the least recently used entry, regardless of its size.
+ */
+public class LruDiskEvictionPolicy implements DiskEvictionPolicy {
+
+    /**
+     * The keys of all entries, least recently used first.
+     */
+    private final LinkedHashMap<String, Boolean> mKeys = new LinkedHashMap<String, Boolean>(
+            16, 0.75f, true);
+
+    @Override
+    public void onPut(String key, long size) {
+        mKeys.put(key, Boolean.TRUE);
+    }
+
+    @Override
+    public void onHit(String key) {
+        mKeys.get(key);
+    }
+
+    @Override
+    public void onRemove(String key) {
+        mKeys.remove(key);
+    }
+
+    @Override
+    public String selectVictim() {
+        Iterator<String> it = mKeys.keySet().iterator();
+        return it.hasNext() ? it.next() : null;
+    }
+
+    @Override
+    public void clear() {
+        mKeys.clear();
+    }
+
+}
@@ -0,0 +1,681 @@
+package com.wuman.androidimageloader.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.wuman.androidimageloader.util.FrequencySketch;
+
+/**
+ * A memory cache with the interface of an LRU cache, whose entries are split
+ * into stripes with a lock each, so that threads looking up different keys
+ * rarely wait for each other.
+ * <p>
+ * The size of all stripes together is bounded. When the cache grows beyond
+ * its maximum size, entries are evicted as chosen by the {@link Policy}. Each
+ * stripe keeps its entries in access order, and the stripe whose least
+ * recently used entry was accessed longest ago is evicted from first, so
+ * eviction follows the global access order closely. Only threads adding
+ * entries evict, one at a time; lookups never wait for evictions.
+ * <p>
+ * Like {@code LruCache}, subclasses may override {@link #sizeOf(Object, Object)}
+ * and {@link #entryRemoved(boolean, Object, Object, Object)}. Null keys and
+ * values are not allowed.
+ */
+public class StripedLruCache<K, V> {
+
+    /**
+     * Selects the entries evicted when the cache is full.
+     */
+    public static enum Policy {
+        /**
+         * Evict the least recently used entries. This is the default.
+         */
+        LRU,
+        /**
+         * Window TinyLFU: new entries are added to a small LRU window. An
+         * entry leaving the window is only admitted to the rest of the cache
+         * if it has been used more often recently than the least recently
+         * used entry there, which is evicted instead; otherwise it is
+         * evicted itself. This keeps a small set of frequently used entries
+         * cached when many entries are used only once, for example when
+         * preloading or flinging a list.
+         */
+        TINY_LFU,
+        /**
+         * Greedy-Dual-Size on a sample of the least recently used entries of
+         * each stripe: the sampled entry with the lowest priority of
+         * {@code L + cost / size} is evicted, where the cost is given to
+         * {@link StripedLruCache#put(Object, Object, long)}. {@code L} is
+         * raised to the priority of each evicted entry, and the priority of
+         * an entry is recomputed when it is used, so entries which are
+         * expensive to recreate are kept longer but are still evicted once
+         * they have not been used for a while.
+         */
+        COST_AWARE
+    }
+
+    private static final int DEFAULT_STRIPE_COUNT = 8;
+
+    /**
+     * The cost of entries added with {@link #put(Object, Object)}.
+     */
+    private static final long DEFAULT_COST = 1;
+
+    /**
+     * The number of least recently used entries of each stripe considered by
+     * {@link Policy#COST_AWARE}.
+     */
+    private static final int COST_SAMPLE_SIZE = 4;
+
+    /**
+     * The percentage of the maximum size used for the window of
+     * {@link Policy#TINY_LFU}. The window always keeps its most recently
+     * added entry.
+     */
+    private static final int WINDOW_PERCENT = 1;
+
+    private static final class Node<K, V> {
+        final K mKey;
+        final V mValue;
+        final int mSize;
+        final long mCost;
+        volatile long mAccessTime;
+
+        /**
+         * The priority used by {@link Policy#COST_AWARE}.
+         */
+        volatile double mPriority;
+
+        /**
+         * Guarded by the {@link Stripe} of the key.
+         */
+        boolean mInWindow;
+
+        Node(K key, V value, int size, long cost) {
+            mKey = key;
+            mValue = value;
+            mSize = size;
+            mCost = cost;
+            mAccessTime = System.nanoTime();
+        }
+
+        void prioritize(double inflation) {
+            mPriority = inflation + (double) mCost / Math.max(1, mSize);
+        }
+    }
+
+    /**
+     * The entries of a stripe in access order, least recently used first.
+     * Entries in the window of {@link Policy#TINY_LFU} are kept apart from
+     * the others. Guarded by the {@link Stripe} itself.
+     */
+    private static final class Stripe<K, V> {
+
+        final LinkedHashMap<K, Node<K, V>> mWindow = new LinkedHashMap<K, Node<K, V>>(
+                16, 0.75f, true);
+
+        final LinkedHashMap<K, Node<K, V>> mMain = new LinkedHashMap<K, Node<K, V>>(
+                16, 0.75f, true);
+
+        Node<K, V> get(K key) {
+            Node<K, V> node = mWindow.get(key);
+            return node != null ? node : mMain.get(key);
+        }
+
+        Node<K, V> remove(K key) {
+            Node<K, V> node = mWindow.remove(key);
+            return node != null ? node : mMain.remove(key);
+        }
+
+        /**
+         * Removes the node if it is still cached.
+         */
+        boolean remove(Node<K, V> node) {
+            LinkedHashMap<K, Node<K, V>> map = node.mInWindow ? mWindow
+                    : mMain;
+            Node<K, V> removed = map.remove(node.mKey);
+            if (removed != node) {
+                if (removed != null) {
+                    map.put(node.mKey, removed);
+                }
+                return false;
+            }
+            return true;
+        }
+
+        static <K, V> Node<K, V> eldest(LinkedHashMap<K, Node<K, V>> map) {
+            Iterator<Node<K, V>> it = map.values().iterator();
+            return it.hasNext() ? it.next() : null;
+        }
+    }
+
+    private final Stripe<K, V>[] mStripes;
+
+    private final AtomicLong mSize = new AtomicLong();
+
+    private final AtomicInteger mCount = new AtomicInteger();
+
+    private final AtomicLong mWindowSize = new AtomicLong();
+
+    private final AtomicInteger mWindowCount = new AtomicInteger();
+
+    private volatile long mMaxSize;
+
+    private volatile Policy mPolicy = Policy.LRU;
+
+    /**
+     * The inflation value {@code L} of {@link Policy#COST_AWARE}. Only
+     * written with {@link #mEvictionLock} held.
+     */
+    private volatile double mInflation;
+
+    /**
+     * How often each key has been looked up or added recently. Keys are
+     * counted whatever the policy, so that {@link Policy#TINY_LFU} works
+     * well as soon as it is selected.
+     */
+    private final FrequencySketch mSketch;
+
+    /**
+     * Held while evicting, so that concurrent puts do not evict more than
+     * needed.
+     */
+    private final Object mEvictionLock = new Object();
+
+    private final AtomicInteger mPutCount = new AtomicInteger();
+
+    private final AtomicInteger mHitCount = new AtomicInteger();
+
+    private final AtomicInteger mMissCount = new AtomicInteger();
+
+    private final AtomicInteger mEvictionCount = new AtomicInteger();
+
+    private final AtomicInteger mRejectionCount = new AtomicInteger();
+
+    /**
+     * Hits and misses while each policy was selected, indexed by ordinal.
+     */
+    private final AtomicInteger[] mPolicyHitCounts;
+
+    private final AtomicInteger[] mPolicyMissCounts;
+
+    public StripedLruCache(long maxSize) {
+        this(maxSize, DEFAULT_STRIPE_COUNT);
+    }
+
+    @SuppressWarnings("unchecked")
+    public StripedLruCache(long maxSize, int stripeCount) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        if (stripeCount < 1) {
+            throw new IllegalArgumentException("stripeCount < 1");
+        }
+        mMaxSize = maxSize;
+        mStripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            mStripes[i] = new Stripe<K, V>();
+        }
+        mSketch = new FrequencySketch(256);
+        int policyCount = Policy.values().length;
+        mPolicyHitCounts = new AtomicInteger[policyCount];
+        mPolicyMissCounts = new AtomicInteger[policyCount];
+        for (int i = 0; i < policyCount; i++) {
+            mPolicyHitCounts[i] = new AtomicInteger();
+            mPolicyMissCounts[i] = new AtomicInteger();
+        }
+    }
+
+    private Stripe<K, V> stripeFor(Object key) {
+        int hash = key.hashCode();
+        // Spread the bits, since keys often differ only in their high bits.
+        hash ^= (hash >>> 20) ^ (hash >>> 12);
+        hash ^= (hash >>> 7) ^ (hash >>> 4);
+        return mStripes[(hash & Integer.MAX_VALUE) % mStripes.length];
+    }
+
+    /**
+     * Sets the eviction policy. Entries already cached are kept.
+     */
+    public void setPolicy(Policy policy) {
+        if (policy == null) {
+            throw new NullPointerException("policy is null");
+        }
+        synchronized (mEvictionLock) {
+            mPolicy = policy;
+        }
+        trimToSize(mMaxSize);
+    }
+
+    public final Policy getPolicy() {
+        return mPolicy;
+    }
+
+    /**
+     * Returns the value for the key and marks it as recently used, or returns
+     * {@code null} if it is not cached.
+     */
+    public final V get(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        Stripe<K, V> stripe = stripeFor(key);
+        Node<K, V> node;
+        synchronized (stripe) {
+            node = stripe.get(key);
+        }
+        mSketch.increment(key);
+        int policy = mPolicy.ordinal();
+        if (node == null) {
+            mMissCount.incrementAndGet();
+            mPolicyMissCounts[policy].incrementAndGet();
+            return null;
+        }
+        node.mAccessTime = System.nanoTime();
+        node.prioritize(mInflation);
+        mHitCount.incrementAndGet();
+        mPolicyHitCounts[policy].incrementAndGet();
+        return node.mValue;
+    }
+
+    /**
+     * Returns {@code true} if the key is cached. Unlike {@link #get(Object)},
+     * this does not mark the entry as used or count as a hit or miss.
+     */
+    public final boolean containsKey(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        Stripe<K, V> stripe = stripeFor(key);
+        synchronized (stripe) {
+            return stripe.mWindow.containsKey(key)
+                    || stripe.mMain.containsKey(key);
+        }
+    }
+
+    /**
+     * Caches the value for the key, and evicts entries if the cache has grown
+     * too large. With {@link Policy#TINY_LFU}, the new entry itself may be
+     * evicted once it leaves the window.
+     *
+     * @return the previous value for the key, or {@code null}.
+     */
+    public final V put(K key, V value) {
+        return put(key, value, DEFAULT_COST);
+    }
+
+    /**
+     * Caches the value for the key, like {@link #put(Object, Object)}.
+     *
+     * @param cost
+     *            the cost of recreating the value if it is evicted, in any
+     *            unit used consistently, such as milliseconds. Only used by
+     *            {@link Policy#COST_AWARE}.
+     * @return the previous value for the key, or {@code null}.
+     */
+    public final V put(K key, V value, long cost) {
+        if (key == null || value == null) {
+            throw new NullPointerException("key == null || value == null");
+        }
+        if (cost < 0) {
+            throw new IllegalArgumentException("cost < 0");
+        }
+        Node<K, V> node = new Node<K, V>(key, value, safeSizeOf(key, value),
+                cost);
+        node.prioritize(mInflation);
+        node.mInWindow = mPolicy == Policy.TINY_LFU;
+        Stripe<K, V> stripe = stripeFor(key);
+        Node<K, V> previous;
+        synchronized (stripe) {
+            previous = stripe.remove(key);
+            if (previous != null) {
+                onNodeRemoved(previous);
+            }
+            (node.mInWindow ? stripe.mWindow : stripe.mMain).put(key, node);
+            onNodeAdded(node);
+        }
+        mSketch.increment(key);
+        mPutCount.incrementAndGet();
+        if (previous != null) {
+            entryRemoved(false, key, previous.mValue, value);
+        }
+        trimToSize(mMaxSize);
+        return previous != null ? previous.mValue : null;
+    }
+
+    /**
+     * Removes the entry for the key.
+     *
+     * @return the previous value for the key, or {@code null}.
+     */
+    public final V remove(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        Stripe<K, V> stripe = stripeFor(key);
+        Node<K, V> previous;
+        synchronized (stripe) {
+            previous = stripe.remove(key);
+            if (previous != null) {
+                onNodeRemoved(previous);
+            }
+        }
+        if (previous == null) {
+            return null;
+        }
+        entryRemoved(false, key, previous.mValue, null);
+        return previous.mValue;
+    }
+
+    /**
+     * Updates the sizes after a node has been added. Called with the lock of
+     * its stripe held.
+     */
+    private void onNodeAdded(Node<K, V> node) {
+        mSize.addAndGet(node.mSize);
+        mCount.incrementAndGet();
+        if (node.mInWindow) {
+            mWindowSize.addAndGet(node.mSize);
+            mWindowCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Updates the sizes after a node has been removed. Called with the lock
+     * of its stripe held.
+     */
+    private void onNodeRemoved(Node<K, V> node) {
+        mSize.addAndGet(-node.mSize);
+        mCount.decrementAndGet();
+        if (node.mInWindow) {
+            mWindowSize.addAndGet(-node.mSize);
+            mWindowCount.decrementAndGet();
+        }
+    }
+
+    /**
+     * Evicts entries until the cache holds no more than the given number of
+     * bytes.
+     */
+    public void trimToSize(long maxSize) {
+        synchronized (mEvictionLock) {
+            mSketch.ensureCapacity(mCount.get());
+            Policy policy = mPolicy;
+            boolean tinyLfu = policy == Policy.TINY_LFU;
+            LinkedList<Node<K, V>> candidates = tinyLfu ? drainWindow(maxSize)
+                    : null;
+            while (mSize.get() > maxSize) {
+                Node<K, V> victim;
+                if (policy == Policy.COST_AWARE) {
+                    victim = selectCheapestVictim();
+                    if (victim != null) {
+                        mInflation = Math.max(mInflation, victim.mPriority);
+                    }
+                } else {
+                    // The window is only evicted from once the rest is empty.
+                    victim = selectVictim(!tinyLfu, true);
+                    if (victim == null) {
+                        victim = selectVictim(true, false);
+                    }
+                }
+                if (victim == null) {
+                    break;
+                }
+                if (candidates != null && !candidates.isEmpty()) {
+                    // Each candidate is weighed against one victim only.
+                    Node<K, V> candidate = candidates.removeFirst();
+                    if (candidate != victim
+                            && mSketch.frequency(candidate.mKey) <= mSketch
+                                    .frequency(victim.mKey)) {
+                        // Not admitted. Ties go to the entry already cached.
+                        victim = candidate;
+                        mRejectionCount.incrementAndGet();
+                    }
+                }
+                evict(victim);
+            }
+        }
+    }
+
+    /**
+     * Moves the least recently used entries out of the window until it is
+     * small enough. Called with {@link #mEvictionLock} held.
+     *
+     * @return the moved entries, which are candidates for admission.
+     */
+    private LinkedList<Node<K, V>> drainWindow(long maxSize) {
+        LinkedList<Node<K, V>> moved = new LinkedList<Node<K, V>>();
+        long windowMaxSize = Math.max(0, maxSize) * WINDOW_PERCENT / 100;
+        while (mWindowSize.get() > windowMaxSize && mWindowCount.get() > 1) {
+            Node<K, V> node = selectVictim(true, false);
+            if (node == null) {
+                break;
+            }
+            Stripe<K, V> stripe = stripeFor(node.mKey);
+            synchronized (stripe) {
+                if (!stripe.remove(node)) {
+                    continue;
+                }
+                onNodeRemoved(node);
+                node.mInWindow = false;
+                node.mAccessTime = System.nanoTime();
+                stripe.mMain.put(node.mKey, node);
+                onNodeAdded(node);
+            }
+            moved.add(node);
+        }
+        return moved;
+    }
+
+    private void evict(Node<K, V> node) {
+        Stripe<K, V> stripe = stripeFor(node.mKey);
+        synchronized (stripe) {
+            if (!stripe.remove(node)) {
+                // Removed or replaced meanwhile.
+                return;
+            }
+            onNodeRemoved(node);
+        }
+        mEvictionCount.incrementAndGet();
+        entryRemoved(true, node.mKey, node.mValue, null);
+    }
+
+    /**
+     * Returns the least recently used entry of all stripes, or {@code null}
+     * if there is none.
+     *
+     * @param window
+     *            whether to consider entries in the window.
+     * @param main
+     *            whether to consider entries outside the window.
+     */
+    private Node<K, V> selectVictim(boolean window, boolean main) {
+        Node<K, V> oldest = null;
+        for (Stripe<K, V> stripe : mStripes) {
+            synchronized (stripe) {
+                if (window) {
+                    oldest = older(oldest, Stripe.eldest(stripe.mWindow));
+                }
+                if (main) {
+                    oldest = older(oldest, Stripe.eldest(stripe.mMain));
+                }
+            }
+        }
+        return oldest;
+    }
+
+    /**
+     * Returns the entry of lowest priority among the least recently used
+     * entries of each stripe, or {@code null} if there is none.
+     */
+    private Node<K, V> selectCheapestVictim() {
+        Node<K, V> cheapest = null;
+        for (Stripe<K, V> stripe : mStripes) {
+            synchronized (stripe) {
+                cheapest = cheaper(cheapest, stripe.mWindow);
+                cheapest = cheaper(cheapest, stripe.mMain);
+            }
+        }
+        return cheapest;
+    }
+
+    private static <K, V> Node<K, V> cheaper(Node<K, V> cheapest,
+            LinkedHashMap<K, Node<K, V>> map) {
+        Iterator<Node<K, V>> it = map.values().iterator();
+        for (int i = 0; i < COST_SAMPLE_SIZE && it.hasNext(); i++) {
+            Node<K, V> node = it.next();
+            if (cheapest == null || node.mPriority < cheapest.mPriority) {
+                cheapest = node;
+            }
+        }
+        return cheapest;
+    }
+
+    private static <K, V> Node<K, V> older(Node<K, V> lhs, Node<K, V> rhs) {
+        if (lhs == null) {
+            return rhs;
+        }
+        if (rhs == null) {
+            return lhs;
+        }
+        return rhs.mAccessTime - lhs.mAccessTime < 0 ? rhs : lhs;
+    }
+
+    /**
+     * Called when an entry is evicted or removed, or when its value is
+     * replaced. Called without any lock held.
+     *
+     * @param evicted
+     *            {@code true} if the entry was evicted to make space.
+     */
+    protected void entryRemoved(boolean evicted, K key, V oldValue,
+            V newValue) {
+    }
+
+    /**
+     * Returns the size of an entry. The default implementation returns 1, so
+     * that the size is the number of entries.
+     */
+    protected int sizeOf(K key, V value) {
+        return 1;
+    }
+
+    private int safeSizeOf(K key, V value) {
+        int result = sizeOf(key, value);
+        if (result < 0) {
+            throw new IllegalStateException("Negative size: " + key + "="
+                    + value);
+        }
+        return result;
+    }
+
+    /**
+     * Evicts all entries.
+     */
+    public final void evictAll() {
+        trimToSize(-1);
+    }
+
+    /**
+     * Returns the sum of the sizes of all entries.
+     */
+    public final long size() {
+        return mSize.get();
+    }
+
+    public final long maxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * Sets the maximum size, and evicts entries if the cache is too large.
+     */
+    public void setMaxSize(long maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        mMaxSize = maxSize;
+        trimToSize(maxSize);
+    }
+
+    public final int hitCount() {
+        return mHitCount.get();
+    }
+
+    public final int missCount() {
+        return mMissCount.get();
+    }
+
+    /**
+     * Returns the number of hits while the given policy was selected.
+     */
+    public final int hitCount(Policy policy) {
+        return mPolicyHitCounts[policy.ordinal()].get();
+    }
+
+    /**
+     * Returns the number of misses while the given policy was selected.
+     */
+    public final int missCount(Policy policy) {
+        return mPolicyMissCounts[policy.ordinal()].get();
+    }
+
+    public final int putCount() {
+        return mPutCount.get();
+    }
+
+    public final int evictionCount() {
+        return mEvictionCount.get();
+    }
+
+    /**
+     * Returns the number of entries evicted by {@link Policy#TINY_LFU} when
+     * they left the window, because they were used less often than the
+     * entries already cached.
+     */
+    public final int rejectionCount() {
+        return mRejectionCount.get();
+    }
+
+    public final void clearStats() {
+        mHitCount.set(0);
+        mMissCount.set(0);
+        mPutCount.set(0);
+        mEvictionCount.set(0);
+        mRejectionCount.set(0);
+        for (int i = 0; i < mPolicyHitCounts.length; i++) {
+            mPolicyHitCounts[i].set(0);
+            mPolicyMissCounts[i].set(0);
+        }
+    }
+
+    private static int hitPercent(int hits, int misses) {
+        int accesses = hits + misses;
+        return accesses != 0 ? (100 * hits / accesses) : 0;
+    }
+
+    @Override
+    public String toString() {
+        int hits = mHitCount.get();
+        int misses = mMissCount.get();
+        StringBuilder builder = new StringBuilder(String.format(
+                "LruCache[maxSize=%d,hits=%d,misses=%d,hitRate=%d%%",
+                mMaxSize, hits, misses, hitPercent(hits, misses)));
+        builder.append(",policy=").append(mPolicy);
+        for (Policy policy : Policy.values()) {
+            int policyHits = hitCount(policy);
+            int policyMisses = missCount(policy);
+            if (policyHits + policyMisses > 0) {
+                builder.append(',').append(policy).append('=')
+                        .append(hitPercent(policyHits, policyMisses))
+                        .append('%');
+            }
+        }
+        builder.append(",rejected=").append(mRejectionCount.get());
+        return builder.append(']').toString();
+    }
+
+}
@@ -0,0 +1,117 @@
+package com.wuman.androidimageloader.cache;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A cache that holds its values only through weak references, so that it
+ * never keeps a value alive by itself. A value can be found for as long as
+ * something else still references it.
+ * <p>
+ * Lookups do not lock, so that they never wait for other threads. Entries
+ * whose values have been garbage collected are dropped when they are looked
+ * up, and otherwise when the next value is put.
+ */
+public class WeakValueCache<K, V> {
+
+    private static final class Ref<K, V> extends WeakReference<V> {
+        final K mKey;
+
+        Ref(K key, V value, ReferenceQueue<? super V> queue) {
+            super(value, queue);
+            mKey = key;
+        }
+    }
+
+    private final ConcurrentHashMap<K, Ref<K, V>> mRefs = new ConcurrentHashMap<K, Ref<K, V>>();
+
+    private final ReferenceQueue<V> mQueue = new ReferenceQueue<V>();
+
+    private final AtomicInteger mPutCount = new AtomicInteger();
+
+    private final AtomicInteger mHitCount = new AtomicInteger();
+
+    private final AtomicInteger mMissCount = new AtomicInteger();
+
+    public void put(K key, V value) {
+        if (key == null || value == null) {
+            throw new NullPointerException("key == null || value == null");
+        }
+        purge();
+        mRefs.put(key, new Ref<K, V>(key, value, mQueue));
+        mPutCount.incrementAndGet();
+    }
+
+    /**
+     * Returns the value for the key, or {@code null} if there is none or it
+     * has been garbage collected.
+     */
+    public V get(K key) {
+        Ref<K, V> ref = mRefs.get(key);
+        V value = ref != null ? ref.get() : null;
+        if (value != null) {
+            mHitCount.incrementAndGet();
+        } else {
+            if (ref != null) {
+                mRefs.remove(key, ref);
+            }
+            mMissCount.incrementAndGet();
+        }
+        return value;
+    }
+
+    /**
+     * Removes the value for the key.
+     *
+     * @return the value, or {@code null} if there is none or it has been
+     *         garbage collected.
+     */
+    public V remove(K key) {
+        Ref<K, V> ref = mRefs.remove(key);
+        return ref != null ? ref.get() : null;
+    }
+
+    public void clear() {
+        mRefs.clear();
+    }
+
+    /**
+     * Returns the number of entries, including those whose values have been
+     * garbage collected but not dropped yet.
+     */
+    public int size() {
+        return mRefs.size();
+    }
+
+    public void clearStats() {
+        mPutCount.set(0);
+        mHitCount.set(0);
+        mMissCount.set(0);
+    }
+
+    /**
+     * Drops the entries whose values have been garbage collected.
+     */
+    @SuppressWarnings("unchecked")
+    private void purge() {
+        Ref<K, V> ref;
+        while ((ref = (Ref<K, V>) mQueue.poll()) != null) {
+            // The key may have been reused for a newer value.
+            mRefs.remove(ref.mKey, ref);
+        }
+    }
+
+    @Override
+    public String toString() {
+        int hits = mHitCount.get();
+        int misses = mMissCount.get();
+        int accesses = hits + misses;
+        int hitPercent = accesses != 0 ? (100 * hits / accesses) : 0;
+        return String.format(
+                "WeakValueCache[entries=%d,puts=%d,hits=%d,misses=%d,hitRate=%d%%]",
+                mRefs.size(), mPutCount.get(), hits, misses, hitPercent);
+    }
+
+}
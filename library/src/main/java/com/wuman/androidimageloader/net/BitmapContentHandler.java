@@ -18,12 +18,17 @@ package com.wuman.androidimageloader.net;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.net.ContentHandler;
+import java.net.HttpURLConnection;
 import java.net.URLConnection;
+import java.util.Arrays;
 
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 
+import com.wuman.androidimageloader.util.CancellationSignal;
+
 /**
  * A {@link ContentHandler} that decodes a {@link Bitmap} from a
  * {@link URLConnection}.
@@ -32,11 +37,24 @@ import android.graphics.BitmapFactory;
  * href="http://code.google.com/p/android/issues/detail?id=6066">Issue 6066</a>.
  * <p>
  * An {@link IOException} is thrown if there is a decoding exception.
+ * <p>
+ * The encoded image can be read without decoding it via
+ * {@link #readContent(URLConnection, CancellationSignal)}, which can be
+ * aborted with a {@link CancellationSignal}, in which case the connection is
+ * disconnected, even in the middle of a read.
  */
 public class BitmapContentHandler extends ContentHandler {
 
     private static final int DEFAULT_TIMEOUT = 0;
 
+    private static final int BUFFER_SIZE = 4096;
+
+    /**
+     * The largest array allocated up front for the announced length of a
+     * response. Longer responses grow the array as they are read.
+     */
+    private static final int MAX_PRESIZE = 4 * 1024 * 1024;
+
     private int mTimeout = DEFAULT_TIMEOUT;
 
     public final void setTimeout(int millis) {
@@ -60,4 +78,73 @@ public class BitmapContentHandler extends ContentHandler {
             input.close();
         }
     }
+
+    /**
+     * Reads the encoded image from a {@link URLConnection} without decoding
+     * it, so that decoding can be done separately.
+     * 
+     * @param connection
+     *            the connection to read from.
+     * @param signal
+     *            the signal used to abort loading, or {@code null}.
+     * @return the encoded image, or {@code null} if the server responded to a
+     *         conditional request with {@code 304 Not Modified}.
+     * @throws InterruptedIOException
+     *             if loading was canceled.
+     */
+    public byte[] readContent(URLConnection connection,
+            CancellationSignal signal) throws IOException {
+        connection.setConnectTimeout(mTimeout);
+        connection.setReadTimeout(mTimeout);
+
+        if (connection instanceof HttpURLConnection
+                && ((HttpURLConnection) connection).getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            ((HttpURLConnection) connection).disconnect();
+            return null;
+        }
+
+        InputStream input = connection.getInputStream();
+        try {
+            if (signal != null) {
+                final CancellableInputStream cancellable = new CancellableInputStream(
+                        input, connection, signal);
+                input = cancellable;
+                signal.setOnCancelListener(new CancellationSignal.OnCancelListener() {
+                    @Override
+                    public void onCancel() {
+                        cancellable.abort();
+                    }
+                });
+            }
+            // Read straight into an array of the announced length, so that
+            // the image is not copied again. The length is supplied by the
+            // server, so it is only trusted up to a limit.
+            int length = connection.getContentLength();
+            byte[] data = new byte[length > 0 ? Math.min(length,
+                    MAX_PRESIZE) : BUFFER_SIZE];
+            int count = 0;
+            int read;
+            while ((read = input.read(data, count, data.length - count)) != -1) {
+                count += read;
+                if (count == data.length) {
+                    int next = input.read();
+                    if (next == -1) {
+                        break;
+                    }
+                    data = Arrays.copyOf(data, data.length * 2);
+                    data[count++] = (byte) next;
+                }
+            }
+            if (signal != null && signal.isCanceled()) {
+                // An aborted stream may end early instead of failing.
+                throw new InterruptedIOException("Canceled");
+            }
+            return count == data.length ? data : Arrays.copyOf(data, count);
+        } finally {
+            if (signal != null) {
+                signal.setOnCancelListener(null);
+            }
+            input.close();
+        }
+    }
 }
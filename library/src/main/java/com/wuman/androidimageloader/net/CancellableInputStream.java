@@ -0,0 +1,103 @@
+package com.wuman.androidimageloader.net;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URLConnection;
+
+import com.wuman.androidimageloader.util.CancellationSignal;
+
+/**
+ * A {@link FilterInputStream} that stops reading from the underlying stream
+ * once its {@link CancellationSignal} has been canceled.
+ * <p>
+ * An {@link InterruptedIOException} is thrown from any read or skip after
+ * cancellation. A read that is already blocked, for example on a stalled
+ * socket, only returns once {@link #abort()} is called.
+ */
+class CancellableInputStream extends FilterInputStream {
+
+    private final URLConnection mConnection;
+
+    private final CancellationSignal mSignal;
+
+    /**
+     * @param connection
+     *            the connection the stream was opened from, disconnected by
+     *            {@link #abort()}.
+     */
+    public CancellableInputStream(InputStream input, URLConnection connection,
+            CancellationSignal signal) {
+        super(input);
+        mConnection = connection;
+        mSignal = signal;
+    }
+
+    /**
+     * Makes a read blocked in another thread return, by disconnecting an
+     * {@link HttpURLConnection} or closing the underlying stream. Call this
+     * from the {@link CancellationSignal.OnCancelListener}.
+     */
+    public void abort() {
+        if (mConnection instanceof HttpURLConnection) {
+            ((HttpURLConnection) mConnection).disconnect();
+        } else {
+            try {
+                in.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private void throwIfCanceled() throws InterruptedIOException {
+        if (mSignal.isCanceled()) {
+            throw new InterruptedIOException("Canceled");
+        }
+    }
+
+    /**
+     * Reports the failure of a read aborted by {@link #abort()} as a
+     * cancellation.
+     */
+    private IOException translate(IOException e) {
+        if (!mSignal.isCanceled()) {
+            return e;
+        }
+        InterruptedIOException canceled = new InterruptedIOException(
+                "Canceled");
+        canceled.initCause(e);
+        return canceled;
+    }
+
+    @Override
+    public int read() throws IOException {
+        throwIfCanceled();
+        try {
+            return super.read();
+        } catch (IOException e) {
+            throw translate(e);
+        }
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) throws IOException {
+        throwIfCanceled();
+        try {
+            return super.read(buffer, offset, count);
+        } catch (IOException e) {
+            throw translate(e);
+        }
+    }
+
+    @Override
+    public long skip(long count) throws IOException {
+        throwIfCanceled();
+        try {
+            return super.skip(count);
+        } catch (IOException e) {
+            throw translate(e);
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package com.wuman.androidimageloader.net;
+
+import java.net.HttpURLConnection;
+import java.net.URLConnection;
+
+/**
+ * The HTTP caching headers of a cached response: when it expires, and the
+ * validators used to revalidate it once it has expired.
+ * <p>
+ * The expiration time is taken from {@code Cache-Control: max-age}, or from
+ * {@code Expires} relative to {@code Date}. If the response has neither but
+ * has a {@code Last-Modified} date, it stays fresh for a tenth of its age, as
+ * suggested by RFC 2616. Responses without any of these headers never expire.
+ * Responses with {@code Cache-Control: no-cache} or {@code no-store} expire
+ * immediately, and are revalidated whenever they are used. Responses with
+ * {@code no-store} must not be written to the disk cache either.
+ */
+public final class HttpCacheMetadata {
+
+    /**
+     * The expiration time of responses that never expire.
+     */
+    public static final long NEVER = Long.MAX_VALUE;
+
+    private final long mExpires;
+
+    private final String mETag;
+
+    private final String mLastModified;
+
+    /**
+     * Not written by {@link #format()}, since such responses are never
+     * stored.
+     */
+    private final boolean mNoStore;
+
+    private HttpCacheMetadata(long expires, String eTag, String lastModified,
+            boolean noStore) {
+        mExpires = expires;
+        mETag = eTag;
+        mLastModified = lastModified;
+        mNoStore = noStore;
+    }
+
+    /**
+     * Reads the caching headers of a response.
+     *
+     * @param now
+     *            the time at which the response was received.
+     * @return the metadata, or {@code null} if the connection is not an HTTP
+     *         connection.
+     */
+    public static HttpCacheMetadata fromResponse(URLConnection connection,
+            long now) {
+        if (!(connection instanceof HttpURLConnection)) {
+            return null;
+        }
+        return new HttpCacheMetadata(computeExpires(connection, now),
+                emptyToNull(connection.getHeaderField("ETag")),
+                emptyToNull(connection.getHeaderField("Last-Modified")),
+                hasNoStore(connection));
+    }
+
+    private static boolean hasNoStore(URLConnection connection) {
+        String cacheControl = connection.getHeaderField("Cache-Control");
+        if (cacheControl != null) {
+            for (String directive : cacheControl.toLowerCase().split(",")) {
+                if (directive.trim().equals("no-store")) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static long computeExpires(URLConnection connection, long now) {
+        String cacheControl = connection.getHeaderField("Cache-Control");
+        if (cacheControl != null) {
+            boolean hasMaxAge = false;
+            long maxAge = 0;
+            for (String directive : cacheControl.toLowerCase().split(",")) {
+                directive = directive.trim();
+                if (directive.equals("no-cache")
+                        || directive.equals("no-store")) {
+                    // Wins over max-age, in whichever order they come.
+                    return now;
+                }
+                if (directive.startsWith("max-age=") && !hasMaxAge) {
+                    try {
+                        maxAge = Long.parseLong(directive.substring(
+                                "max-age=".length()).trim());
+                        hasMaxAge = true;
+                    } catch (NumberFormatException ignored) {
+                    }
+                }
+            }
+            if (hasMaxAge) {
+                long seconds = Math.max(0, maxAge - getAge(connection));
+                return seconds < (NEVER - now) / 1000 ? now + seconds * 1000
+                        : NEVER;
+            }
+        }
+
+        // Correct for the difference between the server's and our clock.
+        long date = connection.getDate();
+        long served = date > 0 ? date : now;
+        long expires = connection.getExpiration();
+        if (expires > 0) {
+            return now + Math.max(0, expires - served);
+        }
+        long lastModified = connection.getLastModified();
+        if (lastModified > 0 && lastModified < served) {
+            return now + (served - lastModified) / 10;
+        }
+        return NEVER;
+    }
+
+    /**
+     * Returns the number of seconds the response has spent in intermediate
+     * caches.
+     */
+    private static long getAge(URLConnection connection) {
+        String age = connection.getHeaderField("Age");
+        if (age != null) {
+            try {
+                return Math.max(0, Long.parseLong(age.trim()));
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        return 0;
+    }
+
+    private static String emptyToNull(String s) {
+        return s == null || s.length() == 0 ? null : s;
+    }
+
+    /**
+     * Returns the metadata of a response revalidated with a
+     * {@code 304 Not Modified} response. The expiration time is taken from
+     * the new response, and validators it does not repeat are kept.
+     */
+    public HttpCacheMetadata revalidate(URLConnection connection, long now) {
+        HttpCacheMetadata updated = fromResponse(connection, now);
+        if (updated == null) {
+            return this;
+        }
+        return new HttpCacheMetadata(updated.mExpires,
+                updated.mETag != null ? updated.mETag : mETag,
+                updated.mLastModified != null ? updated.mLastModified
+                        : mLastModified, updated.mNoStore);
+    }
+
+    /**
+     * Returns {@code true} if the response may be used without revalidating
+     * it.
+     */
+    public boolean isFresh(long now) {
+        return now < mExpires;
+    }
+
+    public long getExpires() {
+        return mExpires;
+    }
+
+    /**
+     * Returns {@code false} if the response had
+     * {@code Cache-Control: no-store}, and must not be written to the disk
+     * cache.
+     */
+    public boolean isStorable() {
+        return !mNoStore;
+    }
+
+    /**
+     * Adds {@code If-None-Match} and {@code If-Modified-Since} headers to a
+     * request, so that the server responds with {@code 304 Not Modified} if
+     * the cached response is still valid. Does nothing if the response had no
+     * validators.
+     */
+    public void addConditionalHeaders(URLConnection connection) {
+        if (mETag != null) {
+            connection.setRequestProperty("If-None-Match", mETag);
+        }
+        if (mLastModified != null) {
+            connection.setRequestProperty("If-Modified-Since", mLastModified);
+        }
+    }
+
+    /**
+     * Returns the metadata as a string, to be read by {@link #parse(String)}.
+     */
+    public String format() {
+        return mExpires + "\n" + (mETag != null ? mETag : "") + "\n"
+                + (mLastModified != null ? mLastModified : "");
+    }
+
+    /**
+     * Reads metadata written by {@link #format()}.
+     *
+     * @return the metadata, or {@code null} if the string is empty or
+     *         malformed.
+     */
+    public static HttpCacheMetadata parse(String s) {
+        if (s == null || s.length() == 0) {
+            return null;
+        }
+        String[] lines = s.split("\n", -1);
+        if (lines.length != 3) {
+            return null;
+        }
+        try {
+            return new HttpCacheMetadata(Long.parseLong(lines[0]),
+                    emptyToNull(lines[1]), emptyToNull(lines[2]), false);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return format().replace('\n', ' ');
+    }
+
+}
@@ -0,0 +1,93 @@
+package com.wuman.androidimageloader.util;
+
+/**
+ * A set of strings that may answer {@code true} for strings it does not
+ * contain, but never answers {@code false} for strings it contains. It takes
+ * about ten bits per expected string, and answers {@code true} for about one
+ * percent of the strings it does not contain until more strings than expected
+ * have been added.
+ * <p>
+ * Strings cannot be removed. Build a new filter instead once more strings than
+ * expected have been added.
+ */
+public final class BloomFilter {
+
+    private static final int BITS_PER_ENTRY = 10;
+
+    private static final int HASH_COUNT = 7;
+
+    private final long[] mWords;
+
+    private final int mBitCount;
+
+    private final int mExpectedCount;
+
+    private int mCount;
+
+    /**
+     * Creates an empty {@link BloomFilter} sized for the given number of
+     * strings.
+     */
+    public BloomFilter(int expectedCount) {
+        if (expectedCount < 1) {
+            throw new IllegalArgumentException("expectedCount < 1");
+        }
+        long bits = Math.max(64L, (long) expectedCount * BITS_PER_ENTRY);
+        mWords = new long[(int) Math.min(Integer.MAX_VALUE / 64, (bits + 63) / 64)];
+        mBitCount = mWords.length * 64;
+        mExpectedCount = expectedCount;
+    }
+
+    public synchronized void add(String s) {
+        int hash1 = mix(s.hashCode());
+        int hash2 = mix(hash1 ^ 0x5bd1e995) | 1;
+        for (int i = 0; i < HASH_COUNT; i++) {
+            int bit = ((hash1 + i * hash2) & Integer.MAX_VALUE) % mBitCount;
+            mWords[bit >>> 6] |= 1L << bit;
+        }
+        mCount++;
+    }
+
+    /**
+     * Returns {@code false} if the string has definitely not been added.
+     */
+    public synchronized boolean mightContain(String s) {
+        int hash1 = mix(s.hashCode());
+        int hash2 = mix(hash1 ^ 0x5bd1e995) | 1;
+        for (int i = 0; i < HASH_COUNT; i++) {
+            int bit = ((hash1 + i * hash2) & Integer.MAX_VALUE) % mBitCount;
+            if ((mWords[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of strings the filter was sized for.
+     */
+    public int getExpectedCount() {
+        return mExpectedCount;
+    }
+
+    /**
+     * Returns the number of strings added, counting duplicates.
+     */
+    public synchronized int count() {
+        return mCount;
+    }
+
+    /**
+     * Spreads the bits of a hash code, since string hash codes that differ
+     * only in a few bits are common.
+     */
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+}
@@ -0,0 +1,121 @@
+package com.wuman.androidimageloader.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Estimates how often each key has been seen recently, in a few bytes per
+ * key. It is a count-min sketch: each key is counted in one counter of each
+ * of four rows, and its estimate is the smallest of those counters, which may
+ * be too high when keys share counters but is never too low. Counters stop at
+ * 15.
+ * <p>
+ * Once ten times as many keys as the sketch is sized for have been counted,
+ * all counters are halved, so that keys which were popular a while ago are
+ * eventually forgotten.
+ * <p>
+ * Counting is not synchronized, so that it never blocks. Concurrent counts
+ * may be lost, which only makes the estimates slightly less accurate.
+ */
+public final class FrequencySketch {
+
+    private static final int DEPTH = 4;
+
+    private static final int MAX_COUNT = 15;
+
+    private static final int MAX_WIDTH = 1 << 24;
+
+    private static final int SAMPLE_FACTOR = 10;
+
+    private static final int[] SEEDS = { 0x97cb3127, 0x0f7a6c8d, 0xb3cc2a6b,
+            0x1d3f4e53 };
+
+    private volatile byte[][] mRows;
+
+    private final AtomicInteger mAdditions = new AtomicInteger();
+
+    /**
+     * Creates a {@link FrequencySketch} sized for the given number of keys.
+     */
+    public FrequencySketch(int expectedCount) {
+        if (expectedCount < 1) {
+            throw new IllegalArgumentException("expectedCount < 1");
+        }
+        mRows = new byte[DEPTH][widthFor(expectedCount)];
+    }
+
+    private static int widthFor(int count) {
+        int width = 16;
+        while (width < count && width < MAX_WIDTH) {
+            width <<= 1;
+        }
+        return width;
+    }
+
+    /**
+     * Resizes the sketch if it is sized for fewer keys than given, which
+     * forgets all counts.
+     */
+    public void ensureCapacity(int expectedCount) {
+        if (expectedCount > mRows[0].length && mRows[0].length < MAX_WIDTH) {
+            mRows = new byte[DEPTH][widthFor(expectedCount)];
+            mAdditions.set(0);
+        }
+    }
+
+    /**
+     * Counts one occurrence of the key.
+     */
+    public void increment(Object key) {
+        byte[][] rows = mRows;
+        int mask = rows[0].length - 1;
+        int hash = mix(key.hashCode());
+        for (int i = 0; i < DEPTH; i++) {
+            byte[] row = rows[i];
+            int index = mix(hash ^ SEEDS[i]) & mask;
+            if (row[index] < MAX_COUNT) {
+                row[index]++;
+            }
+        }
+        if (mAdditions.incrementAndGet() == rows[0].length * SAMPLE_FACTOR) {
+            age(rows);
+        }
+    }
+
+    /**
+     * Returns the estimated number of recent occurrences of the key, at most
+     * 15.
+     */
+    public int frequency(Object key) {
+        byte[][] rows = mRows;
+        int mask = rows[0].length - 1;
+        int hash = mix(key.hashCode());
+        int frequency = MAX_COUNT;
+        for (int i = 0; i < DEPTH; i++) {
+            frequency = Math.min(frequency, rows[i][mix(hash ^ SEEDS[i])
+                    & mask]);
+        }
+        return frequency;
+    }
+
+    private void age(byte[][] rows) {
+        for (byte[] row : rows) {
+            for (int i = 0; i < row.length; i++) {
+                row[i] >>= 1;
+            }
+        }
+        mAdditions.set(0);
+    }
+
+    /**
+     * Spreads the bits of a hash code, like {@link BloomFilter}.
+     */
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+}
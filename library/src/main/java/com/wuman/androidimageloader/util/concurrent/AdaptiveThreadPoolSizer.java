@@ -0,0 +1,213 @@
+package com.wuman.androidimageloader.util.concurrent;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Adjusts the size of a {@link ThreadPoolExecutor} running I/O-bound tasks
+ * using additive-increase/multiplicative-decrease.
+ * <p>
+ * Completed tasks are reported with {@link #onTaskCompleted(long, long)}.
+ * Samples are collected into windows, and throughput is measured in completed
+ * tasks per second, so that tasks transferring an unknown number of bytes
+ * count as well. At the end of each window the pool is shrunk by a constant
+ * factor if latency rose well above the lowest latency observed without a
+ * matching gain in throughput. Otherwise it is grown by one thread if work is
+ * queued and either latency is not congested or throughput improved. The pool
+ * size always stays within the configured bounds.
+ */
+public class AdaptiveThreadPoolSizer {
+
+    /**
+     * The minimum number of samples in a window.
+     */
+    private static final int MIN_SAMPLES = 4;
+
+    /**
+     * The minimum duration of a window.
+     */
+    private static final long MIN_WINDOW_MILLIS = 1000;
+
+    /**
+     * Latency above this multiple of the baseline counts as congestion.
+     */
+    private static final double LATENCY_TOLERANCE = 2.0;
+
+    /**
+     * Throughput must grow by this factor to count as an improvement.
+     */
+    private static final double THROUGHPUT_GAIN = 1.05;
+
+    private static final double DECREASE_FACTOR = 0.75;
+
+    /**
+     * The baseline latency drifts up by this factor every window so that it
+     * can follow a network that has become slower for good.
+     */
+    private static final double BASELINE_DRIFT = 1.05;
+
+    private final ThreadPoolExecutor mExecutor;
+
+    private int mMinPoolSize;
+
+    private int mMaxPoolSize;
+
+    private int mPoolSize;
+
+    private long mWindowStart;
+
+    private int mSamples;
+
+    private long mLatencySum;
+
+    private long mBytes;
+
+    private double mThroughput;
+
+    private double mByteRate;
+
+    private double mLatency;
+
+    private double mBaselineLatency;
+
+    /**
+     * Creates a sizer for the given executor. The executor is resized
+     * immediately to fit within the bounds.
+     */
+    public AdaptiveThreadPoolSizer(ThreadPoolExecutor executor,
+            int minPoolSize, int maxPoolSize) {
+        if (executor == null) {
+            throw new NullPointerException();
+        }
+        mExecutor = executor;
+        mPoolSize = executor.getCorePoolSize();
+        mBaselineLatency = Double.NaN;
+        setBounds(minPoolSize, maxPoolSize);
+    }
+
+    /**
+     * Sets the bounds within which the pool size is adjusted.
+     */
+    public synchronized void setBounds(int minPoolSize, int maxPoolSize) {
+        if (minPoolSize < 1 || maxPoolSize < minPoolSize) {
+            throw new IllegalArgumentException("Invalid bounds: ["
+                    + minPoolSize + ", " + maxPoolSize + "]");
+        }
+        mMinPoolSize = minPoolSize;
+        mMaxPoolSize = maxPoolSize;
+        resize(Math.max(minPoolSize, Math.min(maxPoolSize, mPoolSize)));
+    }
+
+    public synchronized int getMinPoolSize() {
+        return mMinPoolSize;
+    }
+
+    public synchronized int getMaxPoolSize() {
+        return mMaxPoolSize;
+    }
+
+    /**
+     * Returns the current pool size.
+     */
+    public synchronized int getPoolSize() {
+        return mPoolSize;
+    }
+
+    /**
+     * Returns the throughput of the last complete window, in tasks per
+     * second.
+     */
+    public synchronized double getThroughput() {
+        return mThroughput;
+    }
+
+    /**
+     * Returns the number of bytes transferred per second in the last complete
+     * window, counting only tasks that reported it.
+     */
+    public synchronized double getByteRate() {
+        return mByteRate;
+    }
+
+    /**
+     * Returns the average latency of the last complete window, in
+     * milliseconds.
+     */
+    public synchronized double getLatency() {
+        return mLatency;
+    }
+
+    /**
+     * Reports a completed task.
+     *
+     * @param latencyMillis
+     *            the time the task took.
+     * @param bytes
+     *            the number of bytes transferred, or {@code 0} if unknown.
+     */
+    public synchronized void onTaskCompleted(long latencyMillis, long bytes) {
+        long now = now();
+        if (mSamples == 0) {
+            mWindowStart = now - latencyMillis;
+        }
+        mSamples++;
+        mLatencySum += latencyMillis;
+        mBytes += bytes;
+
+        long elapsed = now - mWindowStart;
+        if (mSamples < MIN_SAMPLES || elapsed < MIN_WINDOW_MILLIS) {
+            return;
+        }
+
+        double latency = (double) mLatencySum / mSamples;
+        double throughput = mSamples * 1000.0 / elapsed;
+        mByteRate = mBytes * 1000.0 / elapsed;
+        mSamples = 0;
+        mLatencySum = 0;
+        mBytes = 0;
+
+        if (Double.isNaN(mBaselineLatency) || latency < mBaselineLatency) {
+            mBaselineLatency = latency;
+        } else {
+            mBaselineLatency = Math.min(latency, mBaselineLatency
+                    * BASELINE_DRIFT);
+        }
+
+        boolean improved = throughput > mThroughput * THROUGHPUT_GAIN;
+        boolean congested = latency > mBaselineLatency * LATENCY_TOLERANCE;
+        if (congested && !improved) {
+            resize(Math.max(mMinPoolSize,
+                    (int) (mPoolSize * DECREASE_FACTOR)));
+        } else if (!mExecutor.getQueue().isEmpty()) {
+            resize(Math.min(mMaxPoolSize, mPoolSize + 1));
+        }
+        mThroughput = throughput;
+        mLatency = latency;
+    }
+
+    /**
+     * Returns the current time in milliseconds, from a monotonic clock.
+     */
+    long now() {
+        return System.nanoTime() / 1000000;
+    }
+
+    private void resize(int size) {
+        if (size > mExecutor.getMaximumPoolSize()) {
+            mExecutor.setMaximumPoolSize(size);
+            mExecutor.setCorePoolSize(size);
+        } else {
+            mExecutor.setCorePoolSize(size);
+            mExecutor.setMaximumPoolSize(size);
+        }
+        mPoolSize = size;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(
+                "PoolSize[size=%d,min=%d,max=%d,latency=%.0fms,throughput=%.1f/s,bytes=%.0fB/s]",
+                mPoolSize, mMinPoolSize, mMaxPoolSize, mLatency, mThroughput,
+                mByteRate);
+    }
+
+}
@@ -0,0 +1,14 @@
+package com.wuman.androidimageloader.util.concurrent;
+
+/**
+ * An element of a {@link PriorityBlockingStack} that knows its own priority.
+ */
+public interface Prioritized {
+
+    /**
+     * Returns the priority of this element. Elements with lower values are
+     * taken before elements with higher values.
+     */
+    int getPriority();
+
+}
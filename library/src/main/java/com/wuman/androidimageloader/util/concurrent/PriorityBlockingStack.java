@@ -0,0 +1,328 @@
+package com.wuman.androidimageloader.util.concurrent;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An unbounded {@link BlockingQueue} that orders elements by priority class,
+ * and in LIFO order within the same class.
+ * <p>
+ * Elements implementing {@link Prioritized} are placed into the class given by
+ * {@link Prioritized#getPriority()}, clamped to {@code [0, levels)}. All other
+ * elements are placed into the lowest priority class. If the priority of a
+ * queued element changes, call {@link #reprioritize(Object)} to move it.
+ */
+public class PriorityBlockingStack<E> extends AbstractQueue<E> implements
+        BlockingQueue<E> {
+
+    private final ArrayDeque<E>[] mLevels;
+
+    private final ReentrantLock mLock = new ReentrantLock();
+
+    private final Condition mNotEmpty = mLock.newCondition();
+
+    private int mCount;
+
+    /**
+     * Creates a {@link PriorityBlockingStack} with the given number of
+     * priority classes.
+     */
+    @SuppressWarnings("unchecked")
+    public PriorityBlockingStack(int levels) {
+        if (levels < 1) {
+            throw new IllegalArgumentException("levels must be positive");
+        }
+        mLevels = new ArrayDeque[levels];
+        for (int i = 0; i < levels; i++) {
+            mLevels[i] = new ArrayDeque<E>();
+        }
+    }
+
+    private int levelOf(E e) {
+        int level = e instanceof Prioritized ? ((Prioritized) e)
+                .getPriority() : mLevels.length - 1;
+        return Math.max(0, Math.min(mLevels.length - 1, level));
+    }
+
+    // Must hold lock
+    private E dequeue() {
+        for (ArrayDeque<E> level : mLevels) {
+            E e = level.pollLast();
+            if (e != null) {
+                mCount--;
+                return e;
+            }
+        }
+        return null;
+    }
+
+    // Must hold lock
+    private boolean removeLocked(Object o) {
+        for (ArrayDeque<E> level : mLevels) {
+            if (level.removeLastOccurrence(o)) {
+                mCount--;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Moves a queued element to the top of the priority class it currently
+     * reports, as if it had just been inserted.
+     *
+     * @return {@code true} if the element was queued, {@code false} otherwise.
+     */
+    public boolean reprioritize(E e) {
+        final ReentrantLock lock = mLock;
+        lock.lock();
+        try {
+            if (!removeLocked(e)) {
+                return false;
+            }
+            mLevels[levelOf(e)].offerLast(e);
+            mCount++;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(E e) {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        final ReentrantLock lock = mLock;
+        lock.lock();
+        try {
+            mLevels[levelOf(e)].offerLast(e);
+            mCount++;
+            mNotEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(E e) {
+        offer(e);
+    }
+
+    @Override
+    public boolean offer(E e, long timeout, TimeUnit unit) {
+        return offer(e);
+    }
+
+    @Override
+    public E poll() {
+        final ReentrantLock lock = mLock;
+        lock.lock();
+        try {
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public E take() throws InterruptedException {
+        final ReentrantLock lock = mLock;
+        lock.lockInterruptibly();
+        try {
+            E e;
+            while ((e = dequeue()) == null) {
+                mNotEmpty.await();
+            }
+            return e;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        final ReentrantLock lock = mLock;
+        lock.lockInterruptibly();
+        try {
+            E e;
+            while ((e = dequeue()) == null) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = mNotEmpty.awaitNanos(nanos);
+            }
+            return e;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public E peek() {
+        final ReentrantLock lock = mLock;
+        lock.lock();
+        try {
+            for (ArrayDeque<E> level : mLevels) {
+                E e = level.peekLast();
+                if (e != null) {
+                    return e;
+                }
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        final ReentrantLock lock = mLock;
+        lock.lock();
+        try {
+            return mCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (o == null) {
+            return false;
+        }
+        final ReentrantLock lock = mLock;
+        lock.lock();
+        try {
+            return removeLocked(o);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (o == null) {
+            return false;
+        }
+        final ReentrantLock lock = mLock;
+        lock.lock();
+        try {
+            for (ArrayDeque<E> level : mLevels) {
+                if (level.contains(o)) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        final ReentrantLock lock = mLock;
+        lock.lock();
+        try {
+            for (ArrayDeque<E> level : mLevels) {
+                level.clear();
+            }
+            mCount = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        if (c == null) {
+            throw new NullPointerException();
+        }
+        if (c == this) {
+            throw new IllegalArgumentException();
+        }
+        final ReentrantLock lock = mLock;
+        lock.lock();
+        try {
+            int n = 0;
+            E e;
+            while (n < maxElements && (e = dequeue()) != null) {
+                c.add(e);
+                n++;
+            }
+            return n;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns an iterator over a snapshot of the elements in the order in
+     * which they would be taken.
+     */
+    @Override
+    public Iterator<E> iterator() {
+        final List<E> snapshot;
+        final ReentrantLock lock = mLock;
+        lock.lock();
+        try {
+            snapshot = new ArrayList<E>(mCount);
+            for (ArrayDeque<E> level : mLevels) {
+                Iterator<E> it = level.descendingIterator();
+                while (it.hasNext()) {
+                    snapshot.add(it.next());
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        return new Iterator<E>() {
+            private int mNext;
+            private E mLast;
+
+            @Override
+            public boolean hasNext() {
+                return mNext < snapshot.size();
+            }
+
+            @Override
+            public E next() {
+                if (mNext >= snapshot.size()) {
+                    throw new NoSuchElementException();
+                }
+                mLast = snapshot.get(mNext++);
+                return mLast;
+            }
+
+            @Override
+            public void remove() {
+                if (mLast == null) {
+                    throw new IllegalStateException();
+                }
+                PriorityBlockingStack.this.remove(mLast);
+                mLast = null;
+            }
+        };
+    }
+
+}
@@ -0,0 +1,101 @@
+package com.wuman.androidimageloader;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class ImageHeaderTest {
+
+    private static final byte[] PNG_SIGNATURE = { (byte) 0x89, 'P', 'N', 'G',
+            '\r', '\n', 0x1a, '\n' };
+
+    /**
+     * Builds the header of a PNG of the given color type, followed by the
+     * given chunks. The CRCs are left blank, since they are not checked.
+     */
+    private static byte[] png(int colorType, String... chunkTypes)
+            throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(PNG_SIGNATURE);
+        // Width and height of 1, bit depth of 8, and then the color type,
+        // compression, filter and interlace methods.
+        writeChunk(out, "IHDR", new byte[] { 0, 0, 0, 1, 0, 0, 0, 1, 8,
+                (byte) colorType, 0, 0, 0 });
+        for (String type : chunkTypes) {
+            writeChunk(out, type, new byte[3]);
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeChunk(ByteArrayOutputStream out, String type,
+            byte[] data) throws IOException {
+        int length = data.length;
+        out.write(new byte[] { (byte) (length >>> 24), (byte) (length >>> 16),
+                (byte) (length >>> 8), (byte) length });
+        out.write(type.getBytes("US-ASCII"));
+        out.write(data);
+        out.write(new byte[4]);
+    }
+
+    @Test
+    public void jpegIsOpaque() {
+        assertTrue(ImageHeader.isOpaque(new byte[0], "image/jpeg"));
+    }
+
+    @Test
+    public void otherFormatsAreNotKnownToBeOpaque() throws IOException {
+        assertFalse(ImageHeader.isOpaque(png(2, "IDAT"), "image/gif"));
+        assertFalse(ImageHeader.isOpaque(png(2, "IDAT"), "image/webp"));
+        assertFalse(ImageHeader.isOpaque(png(2, "IDAT"), null));
+    }
+
+    @Test
+    public void pngWithoutAlphaIsOpaque() throws IOException {
+        assertTrue(ImageHeader.isOpaque(png(0, "IDAT"), "image/png"));
+        assertTrue(ImageHeader.isOpaque(png(2, "IDAT"), "image/png"));
+        assertTrue(ImageHeader.isOpaque(png(3, "PLTE", "IDAT"), "image/png"));
+    }
+
+    @Test
+    public void pngWithAlphaChannelIsNotOpaque() throws IOException {
+        // Greyscale and true color with alpha
+        assertFalse(ImageHeader.isOpaque(png(4, "IDAT"), "image/png"));
+        assertFalse(ImageHeader.isOpaque(png(6, "IDAT"), "image/png"));
+    }
+
+    @Test
+    public void pngWithTransparentColorIsNotOpaque() throws IOException {
+        assertFalse(ImageHeader.isOpaque(png(2, "tRNS", "IDAT"), "image/png"));
+        assertFalse(ImageHeader.isOpaque(png(3, "PLTE", "tRNS", "IDAT"),
+                "image/png"));
+    }
+
+    @Test
+    public void pngIsNotKnownToBeOpaqueBeforeImageData() throws IOException {
+        // The header ends before the image data, which a tRNS chunk may
+        // still precede.
+        assertFalse(ImageHeader.isOpaque(png(2), "image/png"));
+        assertFalse(ImageHeader.isOpaque(png(3, "PLTE"), "image/png"));
+        byte[] png = png(2, "IDAT");
+        assertFalse(ImageHeader.isOpaque(
+                Arrays.copyOf(png, png.length - 12), "image/png"));
+    }
+
+    @Test
+    public void corruptPngIsNotOpaque() throws IOException {
+        assertFalse(ImageHeader.isOpaque(Arrays.copyOf(png(2, "IDAT"), 20),
+                "image/png"));
+        byte[] png = png(2, "IDAT");
+        // A chunk length beyond the header
+        png[PNG_SIGNATURE.length] = (byte) 0x7f;
+        assertFalse(ImageHeader.isOpaque(png, "image/png"));
+        png[PNG_SIGNATURE.length] = (byte) 0xff;
+        assertFalse(ImageHeader.isOpaque(png, "image/png"));
+    }
+
+}
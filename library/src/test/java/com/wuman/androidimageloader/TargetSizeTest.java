@@ -0,0 +1,61 @@
+package com.wuman.androidimageloader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import org.junit.Test;
+
+import com.wuman.androidimageloader.TargetSize.ScaleMode;
+
+public class TargetSizeTest {
+
+    @Test
+    public void fitSamplesByLargerRatio() {
+        TargetSize size = new TargetSize(100, 100, ScaleMode.FIT);
+        assertEquals(8, size.computeSampleSize(400, 800));
+        assertEquals(8, size.computeSampleSize(800, 400));
+        assertEquals(2, size.computeSampleSize(300, 100));
+    }
+
+    @Test
+    public void cropSamplesBySmallerRatio() {
+        TargetSize size = new TargetSize(100, 100, ScaleMode.CROP);
+        assertEquals(4, size.computeSampleSize(400, 800));
+        assertEquals(4, size.computeSampleSize(800, 400));
+        assertEquals(2, size.computeSampleSize(1000, 250));
+    }
+
+    @Test
+    public void neverSamplesBelowTargetSize() {
+        TargetSize size = new TargetSize(100, 100, ScaleMode.FIT);
+        assertEquals(1, size.computeSampleSize(199, 199));
+        assertEquals(2, size.computeSampleSize(200, 200));
+        assertEquals(2, size.computeSampleSize(399, 399));
+        assertEquals(1, size.computeSampleSize(50, 50));
+    }
+
+    @Test
+    public void ignoresUnknownSizes() {
+        TargetSize size = new TargetSize(100, 100, ScaleMode.FIT);
+        assertEquals(1, size.computeSampleSize(0, 800));
+        assertEquals(1, size.computeSampleSize(800, -1));
+    }
+
+    @Test
+    public void identifiesSizeInCacheKeys() {
+        assertEquals("100x50-fit",
+                new TargetSize(100, 50, ScaleMode.FIT).toString());
+        assertEquals("100x50-crop-exact", new TargetSize(100, 50,
+                ScaleMode.CROP, true).toString());
+        assertEquals(new TargetSize(100, 50, ScaleMode.FIT), new TargetSize(
+                100, 50, ScaleMode.FIT, false));
+        assertFalse(new TargetSize(100, 50, ScaleMode.FIT)
+                .equals(new TargetSize(100, 50, ScaleMode.CROP)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptySize() {
+        new TargetSize(0, 100, ScaleMode.FIT);
+    }
+
+}
@@ -0,0 +1,345 @@
+package com.wuman.androidimageloader.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.jakewharton.DiskLruCache.Snapshot;
+
+public class DiskCacheTest {
+
+    /**
+     * Queues tasks until the test runs them, so that the test can look at
+     * the cache while it is being opened or cleared.
+     */
+    private static class QueuedExecutor implements Executor {
+
+        final List<Runnable> mTasks = new ArrayList<Runnable>();
+
+        @Override
+        public void execute(Runnable command) {
+            mTasks.add(command);
+        }
+
+        void runAll() {
+            while (!mTasks.isEmpty()) {
+                mTasks.remove(0).run();
+            }
+        }
+    }
+
+    private static class OpenListener implements DiskCache.OnOpenListener {
+
+        DiskCache mCache;
+
+        Boolean mAvailable;
+
+        @Override
+        public void onOpen(DiskCache cache, boolean available) {
+            mCache = cache;
+            mAvailable = Boolean.valueOf(available);
+        }
+    }
+
+    private File mDirectory;
+
+    private QueuedExecutor mExecutor;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = File.createTempFile("DiskCacheTest", "");
+        assertTrue(mDirectory.delete());
+        assertTrue(mDirectory.mkdir());
+        mExecutor = new QueuedExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        deleteRecursively(mDirectory);
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    private DiskCache open(long maxSize, int shardCount) {
+        return open(mDirectory, maxSize, shardCount);
+    }
+
+    private DiskCache open(File directory, long maxSize, int shardCount) {
+        DiskCache cache = new DiskCache(directory, 1, maxSize, shardCount,
+                mExecutor);
+        cache.open(null);
+        mExecutor.runAll();
+        assertTrue(cache.isOpen());
+        return cache;
+    }
+
+    private static byte[] bytes(int length, int value) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) value;
+        }
+        return data;
+    }
+
+    private static byte[] read(Snapshot snapshot) throws IOException {
+        try {
+            InputStream in = DiskCache.getData(snapshot);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[256];
+            int n;
+            while ((n = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            snapshot.close();
+        }
+    }
+
+    private static byte[] read(DiskCache cache, String key)
+            throws IOException {
+        Snapshot snapshot = cache.get(key);
+        return snapshot != null ? read(snapshot) : null;
+    }
+
+    @Test
+    public void isEmptyUntilOpened() throws Exception {
+        DiskCache cache = new DiskCache(mDirectory, 1, 1024, mExecutor);
+        OpenListener listener = new OpenListener();
+        cache.open(listener);
+
+        assertFalse(cache.isOpen());
+        assertFalse(cache.awaitOpen(10));
+        assertNull(cache.get("a"));
+        assertFalse(cache.mightContain("a"));
+        assertFalse(cache.put("a", bytes(3, 1)));
+        assertNull(listener.mAvailable);
+
+        mExecutor.runAll();
+        assertTrue(cache.isOpen());
+        assertTrue(cache.awaitOpen(0));
+        assertSame(cache, listener.mCache);
+        assertEquals(Boolean.TRUE, listener.mAvailable);
+        assertTrue(cache.put("a", bytes(3, 1), "metadata"));
+        Snapshot snapshot = cache.get("a");
+        assertEquals("metadata", DiskCache.getMetadata(snapshot));
+        assertArrayEquals(bytes(3, 1), read(snapshot));
+    }
+
+    @Test
+    public void awaitOpenWaitsForOpenInAnotherThread() throws Exception {
+        DiskCache cache = new DiskCache(mDirectory, 1, 1024, new Executor() {
+            @Override
+            public void execute(final Runnable command) {
+                new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            Thread.sleep(50);
+                        } catch (InterruptedException ignored) {
+                        }
+                        command.run();
+                    }
+                }.start();
+            }
+        });
+        assertFalse(cache.awaitOpen(5000));
+
+        cache.open(null);
+        assertTrue(cache.awaitOpen(5000));
+        assertTrue(cache.put("a", bytes(3, 1)));
+    }
+
+    @Test
+    public void isEmptyAsSoonAsCleared() throws Exception {
+        DiskCache cache = open(1024, 1);
+        assertTrue(cache.put("a", bytes(3, 1)));
+        assertEquals(0, cache.getClearCount());
+
+        cache.clear();
+        assertEquals(1, cache.getClearCount());
+        assertFalse(cache.isOpen());
+        assertNull(cache.get("a"));
+        assertFalse(cache.contains("a"));
+        assertFalse(cache.put("b", bytes(3, 2)));
+        assertFalse(cache.awaitOpen(10));
+
+        mExecutor.runAll();
+        assertTrue(cache.isOpen());
+        assertNull(cache.get("a"));
+        assertTrue(cache.put("b", bytes(3, 2)));
+        assertArrayEquals(bytes(3, 2), read(cache, "b"));
+        // The previous generation has been deleted.
+        assertEquals(1, mDirectory.list().length);
+    }
+
+    @Test
+    public void keepsSnapshotsReadableWhenCleared() throws IOException {
+        DiskCache cache = open(1024, 1);
+        assertTrue(cache.put("a", bytes(3, 1)));
+        Snapshot snapshot = cache.get("a");
+
+        cache.clear();
+        mExecutor.runAll();
+        assertArrayEquals(bytes(3, 1), read(snapshot));
+    }
+
+    @Test
+    public void installsOnlyTheLatestGeneration() throws IOException {
+        DiskCache cache = open(1024, 1);
+        assertTrue(cache.put("a", bytes(3, 1)));
+
+        cache.clear();
+        cache.clear();
+        assertEquals(2, cache.getClearCount());
+        mExecutor.runAll();
+        assertTrue(cache.isOpen());
+        assertNull(cache.get("a"));
+        assertTrue(cache.put("b", bytes(3, 2)));
+        assertEquals(1, mDirectory.list().length);
+    }
+
+    @Test
+    public void spreadsEntriesAcrossShards() throws IOException {
+        DiskCache cache = open(1024 * 1024, 4);
+        for (int i = 0; i < 40; i++) {
+            assertTrue(cache.put("key" + i, bytes(10, i)));
+        }
+        for (int i = 0; i < 40; i++) {
+            assertArrayEquals(bytes(10, i), read(cache, "key" + i));
+        }
+
+        File[] generations = mDirectory.listFiles();
+        assertEquals(1, generations.length);
+        File[] shards = generations[0].listFiles();
+        assertEquals(4, shards.length);
+        for (File shard : shards) {
+            // More than the journal.
+            assertTrue(shard.list().length > 1);
+        }
+    }
+
+    @Test
+    public void evictsAcrossShardsToMaxSize() throws IOException {
+        // Each shard may grow to twice its share, so none holds more than
+        // it may.
+        DiskCache cache = open(200, 2);
+        for (int i = 0; i < 20; i++) {
+            assertTrue(cache.put("key" + i, bytes(20, i)));
+        }
+
+        int kept = 0;
+        for (int i = 0; i < 20; i++) {
+            if (cache.contains("key" + i)) {
+                kept++;
+            }
+        }
+        assertEquals(10, kept);
+        assertFalse(cache.contains("key0"));
+        assertTrue(cache.contains("key19"));
+    }
+
+    @Test
+    public void discardsEntriesOfAnotherShardCount() throws IOException {
+        DiskCache cache = open(1024, 4);
+        assertTrue(cache.put("a", bytes(3, 1)));
+
+        DiskCache resharded = open(1024, 2);
+        assertNull(resharded.get("a"));
+        assertTrue(resharded.put("a", bytes(3, 2)));
+        assertArrayEquals(bytes(3, 2), read(resharded, "a"));
+        assertEquals(2, mDirectory.listFiles()[0].list().length);
+    }
+
+    /**
+     * Opens a small cache in front of a larger one, each holding 20-byte
+     * entries.
+     */
+    private DiskCache[] openTiers() {
+        DiskCache next = open(new File(mDirectory, "next"), 1024, 1);
+        DiskCache cache = open(new File(mDirectory, "first"), 40, 1);
+        cache.setNextTier(next);
+        return new DiskCache[] { cache, next };
+    }
+
+    @Test
+    public void movesEvictedEntriesToNextTier() throws IOException {
+        DiskCache[] tiers = openTiers();
+        DiskCache cache = tiers[0];
+        DiskCache next = tiers[1];
+        assertTrue(cache.put("a", bytes(20, 1), "metadata"));
+        assertTrue(cache.put("b", bytes(20, 2)));
+        assertTrue(cache.put("c", bytes(20, 3)));
+
+        assertTrue(next.contains("a"));
+        assertFalse(next.contains("b"));
+        assertTrue(cache.contains("a"));
+        assertTrue(cache.mightContain("a"));
+        Snapshot snapshot = next.get("a");
+        assertEquals("metadata", DiskCache.getMetadata(snapshot));
+        assertArrayEquals(bytes(20, 1), read(snapshot));
+    }
+
+    @Test
+    public void movesEntriesReadFromNextTierBack() throws IOException {
+        DiskCache[] tiers = openTiers();
+        DiskCache cache = tiers[0];
+        DiskCache next = tiers[1];
+        assertTrue(cache.put("a", bytes(20, 1)));
+        assertTrue(cache.put("b", bytes(20, 2)));
+        assertTrue(cache.put("c", bytes(20, 3)));
+
+        assertArrayEquals(bytes(20, 1), read(cache, "a"));
+        // Moved in the background, which makes room by moving the least
+        // recently used entry the other way.
+        mExecutor.runAll();
+        assertFalse(next.contains("a"));
+        assertTrue(next.contains("b"));
+        assertArrayEquals(bytes(20, 1), read(cache, "a"));
+    }
+
+    @Test
+    public void removesFromBothTiers() throws IOException {
+        DiskCache[] tiers = openTiers();
+        DiskCache cache = tiers[0];
+        DiskCache next = tiers[1];
+        assertTrue(cache.put("a", bytes(20, 1)));
+        assertTrue(next.put("b", bytes(20, 2)));
+
+        assertTrue(cache.remove("a"));
+        assertTrue(cache.remove("b"));
+        assertFalse(cache.remove("b"));
+        assertFalse(cache.contains("a"));
+        assertFalse(next.contains("b"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsCyclicTiers() {
+        DiskCache[] tiers = openTiers();
+        tiers[1].setNextTier(tiers[0]);
+    }
+
+}
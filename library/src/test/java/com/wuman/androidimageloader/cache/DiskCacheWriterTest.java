@@ -0,0 +1,218 @@
+package com.wuman.androidimageloader.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Executor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.jakewharton.DiskLruCache.Snapshot;
+
+public class DiskCacheWriterTest {
+
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    /**
+     * A writer whose clock never advances, so that a batch is written only
+     * once it is flushed.
+     */
+    private static class TestWriter extends DiskCacheWriter {
+
+        TestWriter(DiskCache cache, long maxPendingBytes) {
+            super(cache, maxPendingBytes);
+        }
+
+        @Override
+        long now() {
+            return 0;
+        }
+
+        @Override
+        void lowerThreadPriority() {
+        }
+    }
+
+    private File mDirectory;
+
+    private DiskCache mCache;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = File.createTempFile("DiskCacheWriterTest", "");
+        assertTrue(mDirectory.delete());
+        assertTrue(mDirectory.mkdir());
+        mCache = new DiskCache(mDirectory, 1, 1024 * 1024, DIRECT);
+        mCache.open(null);
+        assertTrue(mCache.isOpen());
+    }
+
+    @After
+    public void tearDown() {
+        deleteRecursively(mDirectory);
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static byte[] bytes(int length, int value) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) value;
+        }
+        return data;
+    }
+
+    /**
+     * Writes the pending entries and waits until none is pending.
+     */
+    private static void drain(DiskCacheWriter writer, String... keys)
+            throws InterruptedException {
+        writer.flush();
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        for (String key : keys) {
+            while (writer.get(key) != null) {
+                if (System.currentTimeMillis() > deadline) {
+                    fail("Not written: " + key);
+                }
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    private byte[] read(String key) throws IOException {
+        Snapshot snapshot = mCache.get(key);
+        if (snapshot == null) {
+            return null;
+        }
+        try {
+            InputStream in = DiskCache.getData(snapshot);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[256];
+            int n;
+            while ((n = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            snapshot.close();
+        }
+    }
+
+    @Test
+    public void writesPendingEntriesOnFlush() throws Exception {
+        DiskCacheWriter writer = new TestWriter(mCache, 1024);
+        assertTrue(writer.write("a", bytes(3, 1), null));
+        assertArrayEquals(bytes(3, 1), writer.get("a"));
+
+        drain(writer, "a");
+        assertArrayEquals(bytes(3, 1), read("a"));
+    }
+
+    @Test
+    public void coalescesWritesOfTheSameKey() throws Exception {
+        DiskCacheWriter writer = new TestWriter(mCache, 8);
+        assertTrue(writer.write("a", bytes(5, 1), null));
+        // Replaces the pending write, so only its own bytes count.
+        assertTrue(writer.write("a", bytes(6, 2), null));
+        assertArrayEquals(bytes(6, 2), writer.get("a"));
+        assertFalse(writer.write("b", bytes(3, 3), null));
+
+        drain(writer, "a");
+        assertArrayEquals(bytes(6, 2), read("a"));
+    }
+
+    @Test
+    public void dropsWritesOverBudget() throws Exception {
+        DiskCacheWriter writer = new TestWriter(mCache, 10);
+        assertTrue(writer.write("a", bytes(6, 1), null));
+        assertFalse(writer.write("b", bytes(6, 2), null));
+        assertNull(writer.get("b"));
+        assertTrue(writer.write("c", bytes(4, 3), null));
+
+        drain(writer, "a", "c");
+        assertNull(read("b"));
+        assertArrayEquals(bytes(4, 3), read("c"));
+    }
+
+    @Test
+    public void acceptsOneEntryLargerThanBudget() throws Exception {
+        DiskCacheWriter writer = new TestWriter(mCache, 4);
+        assertTrue(writer.write("a", bytes(10, 1), null));
+        assertFalse(writer.write("b", bytes(1, 2), null));
+
+        drain(writer, "a");
+        assertArrayEquals(bytes(10, 1), read("a"));
+        // The budget is free again once the entry is on disk.
+        assertTrue(writer.write("b", bytes(1, 2), null));
+    }
+
+    @Test
+    public void appliesNewBudgetToLaterWrites() {
+        DiskCacheWriter writer = new TestWriter(mCache, 10);
+        assertTrue(writer.write("a", bytes(6, 1), null));
+        writer.setMaxPendingBytes(20);
+        assertTrue(writer.write("b", bytes(6, 2), null));
+        writer.setMaxPendingBytes(0);
+        assertArrayEquals(bytes(6, 2), writer.get("b"));
+        assertFalse(writer.write("c", bytes(1, 3), null));
+    }
+
+    @Test
+    public void dropsWritesScheduledBeforeClear() throws Exception {
+        DiskCacheWriter writer = new TestWriter(mCache, 1024);
+        assertTrue(writer.write("a", bytes(3, 1), null));
+        mCache.clear();
+        assertTrue(mCache.isOpen());
+        assertTrue(writer.write("b", bytes(3, 2), null));
+
+        drain(writer, "a", "b");
+        assertNull(read("a"));
+        assertArrayEquals(bytes(3, 2), read("b"));
+    }
+
+    @Test
+    public void cancelsRemovedAndClearedWrites() throws Exception {
+        DiskCacheWriter writer = new TestWriter(mCache, 6);
+        assertTrue(writer.write("a", bytes(6, 1), null));
+        writer.remove("a");
+        assertNull(writer.get("a"));
+        assertTrue(writer.write("b", bytes(6, 2), null));
+        writer.clear();
+        assertNull(writer.get("b"));
+        assertTrue(writer.write("c", bytes(6, 3), null));
+        writer.trim();
+        assertNull(writer.get("c"));
+
+        assertTrue(writer.write("d", bytes(1, 4), null));
+        drain(writer, "d");
+        assertNull(read("a"));
+        assertNull(read("b"));
+        assertNull(read("c"));
+        assertArrayEquals(bytes(1, 4), read("d"));
+    }
+
+}
@@ -0,0 +1,252 @@
+package com.wuman.androidimageloader.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.Test;
+
+public class EncodedMemoryCacheTest {
+
+    /**
+     * Small pages, so that images span several of them.
+     */
+    private static final int PAGE_SIZE = 5;
+
+    /**
+     * A cache in the Java heap, since {@code MemoryFile} is not available
+     * outside of Android.
+     */
+    private static class HeapCache extends EncodedMemoryCache {
+
+        int mClosedStores;
+
+        HeapCache(long maxSize) {
+            super(maxSize, PAGE_SIZE);
+        }
+
+        @Override
+        Store newStore(final int size) {
+            return new Store() {
+                final byte[] mBytes = new byte[size];
+
+                @Override
+                public void write(int offset, byte[] buffer,
+                        int bufferOffset, int count) {
+                    System.arraycopy(buffer, bufferOffset, mBytes, offset,
+                            count);
+                }
+
+                @Override
+                public void read(int offset, byte[] buffer, int bufferOffset,
+                        int count) {
+                    System.arraycopy(mBytes, offset, buffer, bufferOffset,
+                            count);
+                }
+
+                @Override
+                public void close() {
+                    mClosedStores++;
+                }
+            };
+        }
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[3];
+        int n;
+        while ((n = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] read(EncodedMemoryCache.Entry entry)
+            throws IOException {
+        assertTrue(entry.acquire());
+        try {
+            return readFully(entry.newInputStream());
+        } finally {
+            entry.release();
+        }
+    }
+
+    private static byte[] bytes(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) i;
+        }
+        return data;
+    }
+
+    @Test
+    public void returnsCopyOfImage() throws IOException {
+        EncodedMemoryCache cache = new HeapCache(100);
+        byte[] data = bytes(12);
+        cache.put("a", data, "metadata");
+        data[0] = 42;
+
+        EncodedMemoryCache.Entry entry = cache.get("a");
+        assertEquals(12, entry.getLength());
+        assertEquals("metadata", entry.getMetadata());
+        assertArrayEquals(bytes(12), read(entry));
+
+        // Each stream starts at the beginning.
+        assertArrayEquals(bytes(12), read(entry));
+    }
+
+    @Test
+    public void countsWholePages() {
+        EncodedMemoryCache cache = new HeapCache(100);
+        cache.put("a", bytes(6), null);
+        assertEquals(2 * PAGE_SIZE, cache.size());
+    }
+
+    @Test
+    public void keepsPagesOfEvictedImageUntilReleased() throws IOException {
+        EncodedMemoryCache cache = new HeapCache(10);
+        cache.put("a", bytes(10), null);
+        EncodedMemoryCache.Entry entry = cache.get("a");
+        assertTrue(entry.acquire());
+        cache.remove("a");
+
+        // The pages of the image being read cannot be reused.
+        assertNull(cache.put("b", bytes(10), null));
+        assertArrayEquals(bytes(10), readFully(entry.newInputStream()));
+        entry.release();
+
+        assertFalse(entry.acquire());
+        assertNotNull(cache.put("b", bytes(10), null));
+    }
+
+    @Test
+    public void closesMemoryWhenResizedOnceReleased() {
+        HeapCache cache = new HeapCache(100);
+        cache.put("a", bytes(10), null);
+        EncodedMemoryCache.Entry entry = cache.get("a");
+        assertTrue(entry.acquire());
+        cache.setMaxSize(50);
+
+        assertFalse(cache.contains("a"));
+        assertEquals(0, cache.mClosedStores);
+        entry.release();
+        assertEquals(1, cache.mClosedStores);
+        assertNotNull(cache.put("b", bytes(50), null));
+    }
+
+    @Test
+    public void releasesMemoryAndAllocatesAgain() {
+        HeapCache cache = new HeapCache(100);
+        cache.put("a", bytes(10), null);
+        cache.releaseMemory();
+
+        assertFalse(cache.contains("a"));
+        assertEquals(1, cache.mClosedStores);
+        assertEquals(100, cache.getMaxSize());
+        assertNotNull(cache.put("b", bytes(10), null));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedBytes() {
+        EncodedMemoryCache cache = new HeapCache(25);
+        cache.put("a", bytes(10), null);
+        cache.put("b", bytes(10), null);
+        cache.get("a");
+        cache.put("c", bytes(10), null);
+
+        assertTrue(cache.contains("a"));
+        assertFalse(cache.contains("b"));
+        assertTrue(cache.contains("c"));
+        assertEquals(20, cache.size());
+    }
+
+    @Test
+    public void rejectsImagesLargerThanCache() {
+        EncodedMemoryCache cache = new HeapCache(10);
+        assertNull(cache.put("large", bytes(11), null));
+        assertNull(cache.put("empty", bytes(0), null));
+        assertNotNull(cache.put("fits", bytes(10), null));
+        assertEquals(10, cache.size());
+    }
+
+    @Test
+    public void disabledAtZero() {
+        EncodedMemoryCache cache = new HeapCache(0);
+        assertFalse(cache.isEnabled());
+        assertNull(cache.put("a", bytes(1), null));
+        assertNull(cache.get("a"));
+    }
+
+    @Test
+    public void setMaxSizeEvicts() {
+        EncodedMemoryCache cache = new HeapCache(100);
+        cache.put("a", bytes(10), null);
+        cache.put("b", bytes(10), null);
+        cache.setMaxSize(10);
+        // The memory cannot be resized, so every image is evicted.
+        assertFalse(cache.contains("a"));
+        assertFalse(cache.contains("b"));
+        assertNotNull(cache.put("c", bytes(10), null));
+        assertNull(cache.put("d", bytes(11), null));
+
+        cache.setMaxSize(0);
+        assertFalse(cache.isEnabled());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void updatesMetadata() {
+        EncodedMemoryCache cache = new HeapCache(100);
+        cache.put("a", bytes(10), "old");
+        cache.updateMetadata("a", "new");
+        cache.updateMetadata("missing", "new");
+
+        assertEquals("new", cache.get("a").getMetadata());
+        assertFalse(cache.contains("missing"));
+    }
+
+    @Test
+    public void readsImageFromFile() throws IOException {
+        File file = File.createTempFile("encoded", null);
+        try {
+            FileOutputStream output = new FileOutputStream(file);
+            try {
+                output.write(bytes(20));
+            } finally {
+                output.close();
+            }
+            FileInputStream input = new FileInputStream(file);
+            try {
+                input.skip(5);
+                EncodedMemoryCache.Entry entry = new HeapCache(100)
+                        .put("a", input, null);
+
+                assertEquals(20, entry.getLength());
+                assertArrayEquals(bytes(20), read(entry));
+                // The image is read from the start, leaving the offset alone.
+                assertEquals(5, input.read());
+            } finally {
+                input.close();
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNegativeMaxSize() {
+        new HeapCache(-1);
+    }
+
+}
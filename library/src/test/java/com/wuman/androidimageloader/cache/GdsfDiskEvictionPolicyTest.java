@@ -0,0 +1,84 @@
+package com.wuman.androidimageloader.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class GdsfDiskEvictionPolicyTest {
+
+    @Test
+    public void evictsLargeRarelyReadEntriesFirst() {
+        GdsfDiskEvictionPolicy policy = new GdsfDiskEvictionPolicy();
+        policy.onPut("small", 10);
+        policy.onPut("large", 1000);
+        assertEquals("large", policy.selectVictim());
+    }
+
+    @Test
+    public void evictsLessFrequentlyReadEntriesFirst() {
+        GdsfDiskEvictionPolicy policy = new GdsfDiskEvictionPolicy();
+        policy.onPut("read", 100);
+        policy.onPut("unread", 100);
+        policy.onHit("read");
+        assertEquals("unread", policy.selectVictim());
+    }
+
+    @Test
+    public void evictsOlderEntryOfSamePriority() {
+        GdsfDiskEvictionPolicy policy = new GdsfDiskEvictionPolicy();
+        policy.onPut("a", 100);
+        policy.onPut("b", 100);
+        assertEquals("a", policy.selectVictim());
+    }
+
+    @Test
+    public void replacedEntryKeepsItsHits() {
+        GdsfDiskEvictionPolicy policy = new GdsfDiskEvictionPolicy();
+        policy.onPut("replaced", 100);
+        policy.onHit("replaced");
+        policy.onPut("other", 100);
+        policy.onHit("other");
+        policy.onPut("replaced", 100);
+        assertEquals("other", policy.selectVictim());
+    }
+
+    @Test
+    public void agesEntriesNoLongerRead() {
+        GdsfDiskEvictionPolicy policy = new GdsfDiskEvictionPolicy();
+        policy.onPut("popular", 1);
+        for (int i = 0; i < 9; i++) {
+            policy.onHit("popular");
+        }
+
+        // Each eviction raises the priority of entries added later, until
+        // the popular entry is evicted although it was read more often.
+        int evictions = 0;
+        String victim;
+        do {
+            policy.onPut("new" + evictions, 1);
+            victim = policy.selectVictim();
+            policy.onRemove(victim);
+            evictions++;
+            assertTrue("never evicted", evictions < 100);
+        } while (!victim.equals("popular"));
+        assertTrue(evictions > 5);
+    }
+
+    @Test
+    public void forgetsRemovedEntries() {
+        GdsfDiskEvictionPolicy policy = new GdsfDiskEvictionPolicy();
+        assertNull(policy.selectVictim());
+
+        policy.onPut("a", 1000);
+        policy.onPut("b", 1);
+        policy.onRemove("a");
+        policy.onHit("a");
+        assertEquals("b", policy.selectVictim());
+
+        policy.clear();
+        assertNull(policy.selectVictim());
+    }
+
+}
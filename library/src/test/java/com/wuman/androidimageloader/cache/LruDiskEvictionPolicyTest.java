@@ -0,0 +1,43 @@
+package com.wuman.androidimageloader.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class LruDiskEvictionPolicyTest {
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        LruDiskEvictionPolicy policy = new LruDiskEvictionPolicy();
+        policy.onPut("a", 1);
+        policy.onPut("b", 1000);
+        policy.onPut("c", 1);
+        assertEquals("a", policy.selectVictim());
+
+        policy.onHit("a");
+        assertEquals("b", policy.selectVictim());
+
+        policy.onPut("b", 1);
+        assertEquals("c", policy.selectVictim());
+    }
+
+    @Test
+    public void forgetsRemovedEntries() {
+        LruDiskEvictionPolicy policy = new LruDiskEvictionPolicy();
+        assertNull(policy.selectVictim());
+
+        policy.onPut("a", 1);
+        policy.onPut("b", 1);
+        policy.onRemove("a");
+        assertEquals("b", policy.selectVictim());
+
+        // Hits on entries that are not cached are ignored.
+        policy.onHit("a");
+        assertEquals("b", policy.selectVictim());
+
+        policy.clear();
+        assertNull(policy.selectVictim());
+    }
+
+}
@@ -0,0 +1,377 @@
+package com.wuman.androidimageloader.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class StripedLruCacheTest {
+
+    /**
+     * A cache whose entries are as large as their values are long, and which
+     * records removed entries.
+     */
+    private static class RecordingCache extends StripedLruCache<String, String> {
+
+        final List<String> mEvicted = new ArrayList<String>();
+
+        final List<String> mRemoved = new ArrayList<String>();
+
+        RecordingCache(long maxSize, int stripeCount) {
+            super(maxSize, stripeCount);
+        }
+
+        @Override
+        protected int sizeOf(String key, String value) {
+            return value.length();
+        }
+
+        @Override
+        protected synchronized void entryRemoved(boolean evicted, String key,
+                String oldValue, String newValue) {
+            (evicted ? mEvicted : mRemoved).add(key + "=" + oldValue);
+        }
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        // A single stripe follows the access order exactly.
+        StripedLruCache<String, String> cache = new StripedLruCache<String, String>(
+                3, 1);
+        cache.put("a", "A");
+        cache.put("b", "B");
+        cache.put("c", "C");
+        cache.get("a");
+        cache.put("d", "D");
+
+        assertEquals("A", cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals("C", cache.get("c"));
+        assertEquals("D", cache.get("d"));
+        assertEquals(1, cache.evictionCount());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedAcrossStripes() {
+        StripedLruCache<String, String> cache = new StripedLruCache<String, String>(
+                100, 8);
+        for (int i = 0; i < 1000; i++) {
+            cache.put("key" + i, "value" + i);
+        }
+
+        assertEquals(100, cache.size());
+        assertEquals(900, cache.evictionCount());
+        assertEquals("value999", cache.get("key999"));
+        assertNull(cache.get("key0"));
+    }
+
+    @Test
+    public void countsSizeOfEntries() {
+        RecordingCache cache = new RecordingCache(10, 4);
+        cache.put("a", "aaa");
+        cache.put("b", "bbbb");
+        assertEquals(7, cache.size());
+
+        cache.put("a", "a");
+        assertEquals(5, cache.size());
+
+        cache.remove("b");
+        assertEquals(1, cache.size());
+
+        cache.remove("b");
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void evictsUntilBytesFit() {
+        RecordingCache cache = new RecordingCache(10, 1);
+        cache.put("a", "aaaa");
+        cache.put("b", "bbbb");
+        cache.put("c", "cccccccc");
+
+        assertEquals(8, cache.size());
+        assertFalse(cache.containsKey("a"));
+        assertFalse(cache.containsKey("b"));
+        assertTrue(cache.containsKey("c"));
+        assertEquals("[a=aaaa, b=bbbb]", cache.mEvicted.toString());
+    }
+
+    @Test
+    public void reportsReplacedAndRemovedEntries() {
+        RecordingCache cache = new RecordingCache(10, 2);
+        cache.put("a", "1");
+        cache.put("a", "2");
+        cache.remove("a");
+
+        assertEquals("[a=1, a=2]", cache.mRemoved.toString());
+        assertTrue(cache.mEvicted.isEmpty());
+    }
+
+    @Test
+    public void containsKeyDoesNotCountOrReorder() {
+        StripedLruCache<String, String> cache = new StripedLruCache<String, String>(
+                2, 1);
+        cache.put("a", "A");
+        cache.put("b", "B");
+
+        assertTrue(cache.containsKey("a"));
+        assertFalse(cache.containsKey("c"));
+        assertEquals(0, cache.hitCount());
+        assertEquals(0, cache.missCount());
+
+        // "a" is still the least recently used entry.
+        cache.put("c", "C");
+        assertFalse(cache.containsKey("a"));
+        assertTrue(cache.containsKey("b"));
+    }
+
+    @Test
+    public void countsHitsAndMisses() {
+        StripedLruCache<String, String> cache = new StripedLruCache<String, String>(
+                10);
+        cache.put("a", "A");
+        cache.get("a");
+        cache.get("a");
+        cache.get("b");
+
+        assertEquals(2, cache.hitCount());
+        assertEquals(1, cache.missCount());
+        assertEquals(1, cache.putCount());
+
+        cache.clearStats();
+        assertEquals(0, cache.hitCount());
+        assertEquals(0, cache.missCount());
+    }
+
+    @Test
+    public void setMaxSizeEvicts() {
+        RecordingCache cache = new RecordingCache(10, 1);
+        for (int i = 0; i < 5; i++) {
+            cache.put("key" + i, "vv");
+        }
+        cache.setMaxSize(4);
+
+        assertEquals(4, cache.size());
+        assertEquals(4, cache.maxSize());
+        assertTrue(cache.containsKey("key3"));
+        assertTrue(cache.containsKey("key4"));
+    }
+
+    @Test
+    public void evictAllEmptiesCache() {
+        RecordingCache cache = new RecordingCache(10, 4);
+        cache.put("a", "A");
+        cache.put("b", "B");
+        cache.evictAll();
+
+        assertEquals(0, cache.size());
+        assertEquals(2, cache.mEvicted.size());
+        assertNull(cache.get("a"));
+    }
+
+    @Test
+    public void keepsSizeConsistentUnderConcurrentUse()
+            throws InterruptedException {
+        final RecordingCache cache = new RecordingCache(1000, 8);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int offset = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 5000; i++) {
+                        String key = "key" + ((i * 7 + offset) % 500);
+                        if (i % 3 == 0) {
+                            cache.remove(key);
+                        } else if (cache.get(key) == null) {
+                            cache.put(key, "value" + i);
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        long size = 0;
+        for (int i = 0; i < 500; i++) {
+            String value = cache.get("key" + i);
+            if (value != null) {
+                size += value.length();
+            }
+        }
+        assertEquals(size, cache.size());
+        assertTrue(cache.size() <= 1000);
+    }
+
+    /**
+     * Caches 50 frequently used keys in a cache of 100 entries, then adds
+     * 1000 keys used once, and returns how many of the frequent keys are
+     * still cached.
+     */
+    private static int survivorsOfScan(StripedLruCache<String, String> cache) {
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 50; i++) {
+                String key = "hot" + i;
+                if (cache.get(key) == null) {
+                    cache.put(key, key);
+                }
+            }
+        }
+        for (int i = 0; i < 1000; i++) {
+            cache.put("scan" + i, "scan" + i);
+        }
+        int survivors = 0;
+        for (int i = 0; i < 50; i++) {
+            if (cache.containsKey("hot" + i)) {
+                survivors++;
+            }
+        }
+        return survivors;
+    }
+
+    @Test
+    public void lruLosesFrequentEntriesToScan() {
+        StripedLruCache<String, String> cache = new StripedLruCache<String, String>(
+                100, 1);
+        assertEquals(0, survivorsOfScan(cache));
+    }
+
+    @Test
+    public void tinyLfuKeepsFrequentEntriesThroughScan() {
+        StripedLruCache<String, String> cache = new StripedLruCache<String, String>(
+                100, 4);
+        cache.setPolicy(StripedLruCache.Policy.TINY_LFU);
+
+        assertEquals(50, survivorsOfScan(cache));
+        assertTrue(cache.rejectionCount() > 0);
+        assertTrue(cache.size() <= 100);
+        // The most recently added entry is kept in the window.
+        assertTrue(cache.containsKey("scan999"));
+    }
+
+    @Test
+    public void tinyLfuAdmitsEachCandidateOnce() {
+        RecordingCache cache = new RecordingCache(10, 1);
+        cache.setPolicy(StripedLruCache.Policy.TINY_LFU);
+        cache.put("cold", "cccc");
+        cache.put("hot", "hhhh");
+        cache.put("candidate", "x");
+        for (int i = 0; i < 4; i++) {
+            cache.get("hot");
+        }
+        for (int i = 0; i < 2; i++) {
+            cache.get("candidate");
+        }
+
+        // Needs two evictions. The candidate leaving the window is used more
+        // often than "cold" and is admitted in its place, and is not weighed
+        // again against "hot" for the second eviction.
+        cache.put("large", "llllllll");
+
+        assertTrue(cache.containsKey("candidate"));
+        assertTrue(cache.containsKey("large"));
+        assertEquals("[cold=cccc, hot=hhhh]", cache.mEvicted.toString());
+        assertEquals(0, cache.rejectionCount());
+        assertEquals(9, cache.size());
+    }
+
+    @Test
+    public void costAwareEvictsCheapEntriesFirst() {
+        StripedLruCache<String, String> cache = new StripedLruCache<String, String>(
+                4, 1);
+        cache.setPolicy(StripedLruCache.Policy.COST_AWARE);
+        cache.put("expensive", "E", 100);
+        cache.put("a", "A", 1);
+        cache.put("b", "B", 1);
+        cache.put("c", "C", 1);
+        cache.put("d", "D", 1);
+
+        // "expensive" is the least recently used entry.
+        assertTrue(cache.containsKey("expensive"));
+        assertFalse(cache.containsKey("a"));
+        assertEquals(4, cache.size());
+    }
+
+    @Test
+    public void costAwareEvictsLargeEntriesFirst() {
+        RecordingCache cache = new RecordingCache(10, 1);
+        cache.setPolicy(StripedLruCache.Policy.COST_AWARE);
+        cache.put("small", "s", 8);
+        cache.put("large", "llllllll", 8);
+        cache.put("small2", "s", 8);
+
+        // Same cost, so the large entry frees the most for the least cost.
+        cache.put("small3", "s", 8);
+
+        assertEquals("[large=llllllll]", cache.mEvicted.toString());
+        assertTrue(cache.containsKey("small"));
+    }
+
+    @Test
+    public void costAwareEventuallyEvictsUnusedExpensiveEntries() {
+        StripedLruCache<String, String> cache = new StripedLruCache<String, String>(
+                4, 1);
+        cache.setPolicy(StripedLruCache.Policy.COST_AWARE);
+        cache.put("expensive", "E", 100);
+        int puts = 0;
+        while (cache.containsKey("expensive")) {
+            cache.put("cheap" + puts, "C", 1);
+            puts++;
+            assertTrue("never evicted", puts < 1000);
+        }
+        // Each eviction raises the priority of later entries.
+        assertTrue(puts > 50);
+    }
+
+    @Test
+    public void costAwareKeepsEntriesInUse() {
+        StripedLruCache<String, String> cache = new StripedLruCache<String, String>(
+                4, 1);
+        cache.setPolicy(StripedLruCache.Policy.COST_AWARE);
+        cache.put("used", "U", 1);
+        for (int i = 0; i < 100; i++) {
+            assertEquals("U", cache.get("used"));
+            cache.put("cheap" + i, "C", 1);
+        }
+        assertTrue(cache.containsKey("used"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNegativeCost() {
+        new StripedLruCache<String, String>(1).put("a", "A", -1);
+    }
+
+    @Test
+    public void switchingPolicyKeepsEntries() {
+        StripedLruCache<String, String> cache = new StripedLruCache<String, String>(
+                10, 2);
+        cache.put("a", "A");
+        cache.setPolicy(StripedLruCache.Policy.TINY_LFU);
+        cache.put("b", "B");
+        cache.setPolicy(StripedLruCache.Policy.LRU);
+
+        assertEquals(StripedLruCache.Policy.LRU, cache.getPolicy());
+        assertEquals("A", cache.get("a"));
+        assertEquals("B", cache.get("b"));
+        assertEquals(2, cache.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonPositiveMaxSize() {
+        new StripedLruCache<String, String>(0);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void rejectsNullValues() {
+        new StripedLruCache<String, String>(1).put("a", null);
+    }
+
+}
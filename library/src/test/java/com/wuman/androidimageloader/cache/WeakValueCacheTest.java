@@ -0,0 +1,81 @@
+package com.wuman.androidimageloader.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.lang.ref.WeakReference;
+
+import org.junit.Test;
+
+public class WeakValueCacheTest {
+
+    @Test
+    public void findsReferencedValues() {
+        WeakValueCache<String, Object> cache = new WeakValueCache<String, Object>();
+        Object value = new Object();
+        cache.put("a", value);
+
+        assertSame(value, cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals(1, cache.size());
+        assertEquals(
+                "WeakValueCache[entries=1,puts=1,hits=1,misses=1,hitRate=50%]",
+                cache.toString());
+    }
+
+    @Test
+    public void replacesAndRemovesValues() {
+        WeakValueCache<String, Object> cache = new WeakValueCache<String, Object>();
+        Object first = new Object();
+        Object second = new Object();
+        cache.put("a", first);
+        cache.put("a", second);
+        assertSame(second, cache.get("a"));
+
+        assertSame(second, cache.remove("a"));
+        assertNull(cache.remove("a"));
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void dropsCollectedValues() {
+        WeakValueCache<String, Object> cache = new WeakValueCache<String, Object>();
+        Object value = new Object();
+        WeakReference<Object> probe = new WeakReference<Object>(value);
+        cache.put("a", value);
+        value = null;
+        for (int i = 0; i < 50 && probe.get() != null; i++) {
+            System.gc();
+        }
+        if (probe.get() != null) {
+            // The VM did not collect the value; nothing to check.
+            return;
+        }
+
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void clearsEntriesAndStats() {
+        WeakValueCache<String, Object> cache = new WeakValueCache<String, Object>();
+        Object value = new Object();
+        cache.put("a", value);
+        cache.get("a");
+        cache.clear();
+        cache.clearStats();
+
+        assertEquals(0, cache.size());
+        assertEquals(
+                "WeakValueCache[entries=0,puts=0,hits=0,misses=0,hitRate=0%]",
+                cache.toString());
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void rejectsNullValues() {
+        new WeakValueCache<String, Object>().put("a", null);
+    }
+
+}
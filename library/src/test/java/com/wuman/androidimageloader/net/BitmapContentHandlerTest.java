@@ -0,0 +1,163 @@
+package com.wuman.androidimageloader.net;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+
+import org.junit.Test;
+
+import com.wuman.androidimageloader.util.CancellationSignal;
+
+public class BitmapContentHandlerTest {
+
+    /**
+     * A connection answering with the given body and Content-Length.
+     */
+    private static class ResponseConnection extends HttpURLConnection {
+
+        final int mResponseCode;
+
+        final InputStream mBody;
+
+        final int mContentLength;
+
+        boolean mDisconnected;
+
+        ResponseConnection(int responseCode, InputStream body,
+                int contentLength) throws MalformedURLException {
+            super(new URL("http://example.com/image.png"));
+            mResponseCode = responseCode;
+            mBody = body;
+            mContentLength = contentLength;
+        }
+
+        @Override
+        public int getResponseCode() {
+            return mResponseCode;
+        }
+
+        @Override
+        public int getContentLength() {
+            return mContentLength;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return mBody;
+        }
+
+        @Override
+        public void connect() {
+        }
+
+        @Override
+        public void disconnect() {
+            mDisconnected = true;
+        }
+
+        @Override
+        public boolean usingProxy() {
+            return false;
+        }
+    }
+
+    /**
+     * A stream returning at most a few bytes per read, like a socket.
+     */
+    private static class ChunkedInputStream extends ByteArrayInputStream {
+
+        ChunkedInputStream(byte[] data) {
+            super(data);
+        }
+
+        @Override
+        public synchronized int read(byte[] buffer, int offset, int count) {
+            return super.read(buffer, offset, Math.min(count, 1000));
+        }
+    }
+
+    private static byte[] body(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) i;
+        }
+        return data;
+    }
+
+    private static byte[] read(byte[] body, int contentLength)
+            throws IOException {
+        return new BitmapContentHandler().readContent(new ResponseConnection(
+                HttpURLConnection.HTTP_OK, new ChunkedInputStream(body),
+                contentLength), null);
+    }
+
+    @Test
+    public void readsBodyOfAnnouncedLength() throws IOException {
+        byte[] body = body(5000);
+        assertArrayEquals(body, read(body, 5000));
+    }
+
+    @Test
+    public void readsBodyWithoutLength() throws IOException {
+        byte[] body = body(10000);
+        assertArrayEquals(body, read(body, -1));
+        assertArrayEquals(new byte[0], read(new byte[0], -1));
+    }
+
+    @Test
+    public void readsBodyLongerThanAnnounced() throws IOException {
+        byte[] body = body(5000);
+        assertArrayEquals(body, read(body, 10));
+    }
+
+    @Test
+    public void readsBodyShorterThanAnnounced() throws IOException {
+        byte[] body = body(5000);
+        assertArrayEquals(body, read(body, 8000));
+    }
+
+    @Test
+    public void returnsNullWhenNotModified() throws IOException {
+        ResponseConnection connection = new ResponseConnection(
+                HttpURLConnection.HTTP_NOT_MODIFIED, new ChunkedInputStream(
+                        new byte[0]), 0);
+        assertNull(new BitmapContentHandler().readContent(connection,
+                new CancellationSignal()));
+        assertTrue(connection.mDisconnected);
+    }
+
+    @Test
+    public void abortsWhenCanceled() throws IOException {
+        final CancellationSignal signal = new CancellationSignal();
+        // Cancels after the first read, and then ends as an aborted socket
+        // may.
+        InputStream body = new ChunkedInputStream(body(5000)) {
+            @Override
+            public synchronized int read(byte[] buffer, int offset, int count) {
+                if (signal.isCanceled()) {
+                    return -1;
+                }
+                signal.cancel();
+                return super.read(buffer, offset, count);
+            }
+        };
+        ResponseConnection connection = new ResponseConnection(
+                HttpURLConnection.HTTP_OK, body, 5000);
+        try {
+            new BitmapContentHandler().readContent(connection, signal);
+            fail();
+        } catch (InterruptedIOException expected) {
+        }
+        assertTrue(connection.mDisconnected);
+    }
+
+}
@@ -0,0 +1,180 @@
+package com.wuman.androidimageloader.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.wuman.androidimageloader.util.CancellationSignal;
+
+public class CancellableInputStreamTest {
+
+    private static final URL URL;
+
+    static {
+        try {
+            URL = new URL("http://example.com/image.png");
+        } catch (MalformedURLException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static class TestConnection extends HttpURLConnection {
+
+        boolean mDisconnected;
+
+        TestConnection() {
+            super(URL);
+        }
+
+        @Override
+        public void connect() {
+        }
+
+        @Override
+        public void disconnect() {
+            mDisconnected = true;
+        }
+
+        @Override
+        public boolean usingProxy() {
+            return false;
+        }
+    }
+
+    /**
+     * A connection other than HTTP, which can only be aborted by closing its
+     * stream.
+     */
+    private static class FileConnection extends URLConnection {
+
+        FileConnection() {
+            super(URL);
+        }
+
+        @Override
+        public void connect() {
+        }
+    }
+
+    /**
+     * A stream whose reads block until it is closed, like a stalled socket.
+     */
+    private static class StalledInputStream extends InputStream {
+
+        final CountDownLatch mReading = new CountDownLatch(1);
+
+        final CountDownLatch mClosed = new CountDownLatch(1);
+
+        @Override
+        public int read() throws IOException {
+            mReading.countDown();
+            try {
+                mClosed.await();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+            throw new IOException("Socket closed");
+        }
+
+        @Override
+        public void close() {
+            mClosed.countDown();
+        }
+    }
+
+    @Test
+    public void readsUntilCanceled() throws IOException {
+        CancellationSignal signal = new CancellationSignal();
+        InputStream in = new CancellableInputStream(new ByteArrayInputStream(
+                new byte[] { 1, 2, 3, 4 }), new TestConnection(), signal);
+        assertEquals(1, in.read());
+        assertEquals(2, in.read(new byte[2], 0, 2));
+
+        signal.cancel();
+        try {
+            in.read();
+            fail();
+        } catch (InterruptedIOException expected) {
+        }
+        try {
+            in.skip(1);
+            fail();
+        } catch (InterruptedIOException expected) {
+        }
+    }
+
+    @Test
+    public void abortDisconnectsHttpConnection() {
+        TestConnection connection = new TestConnection();
+        CancellableInputStream in = new CancellableInputStream(
+                new ByteArrayInputStream(new byte[1]), connection,
+                new CancellationSignal());
+        assertFalse(connection.mDisconnected);
+        in.abort();
+        assertTrue(connection.mDisconnected);
+    }
+
+    @Test
+    public void abortsBlockedReadOnCancel() throws Exception {
+        StalledInputStream stalled = new StalledInputStream();
+        CancellationSignal signal = new CancellationSignal();
+        final CancellableInputStream in = new CancellableInputStream(stalled,
+                new FileConnection(), signal);
+        signal.setOnCancelListener(new CancellationSignal.OnCancelListener() {
+            @Override
+            public void onCancel() {
+                in.abort();
+            }
+        });
+        final IOException[] failure = new IOException[1];
+        Thread reader = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    in.read();
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            }
+        };
+        reader.start();
+        assertTrue(stalled.mReading.await(5, TimeUnit.SECONDS));
+
+        signal.cancel();
+        reader.join(5000);
+        assertFalse(reader.isAlive());
+        assertTrue(failure[0] instanceof InterruptedIOException);
+        assertNotNull(failure[0].getCause());
+    }
+
+    @Test
+    public void reportsOtherFailuresAsIs() throws IOException {
+        StalledInputStream stalled = new StalledInputStream();
+        stalled.close();
+        InputStream in = new CancellableInputStream(stalled,
+                new FileConnection(), new CancellationSignal());
+        try {
+            in.read();
+            fail();
+        } catch (InterruptedIOException e) {
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+}
@@ -0,0 +1,210 @@
+package com.wuman.androidimageloader.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+public class HttpCacheMetadataTest {
+
+    private static final long NOW = 1000000000000L;
+
+    /**
+     * A connection answering with the given response headers.
+     */
+    private static class ResponseConnection extends HttpURLConnection {
+
+        /**
+         * Header names are not case-sensitive, and {@link URLConnection}
+         * looks some up in lower case.
+         */
+        final Map<String, String> mHeaders = new TreeMap<String, String>(
+                String.CASE_INSENSITIVE_ORDER);
+
+        final Map<String, String> mRequestHeaders = new HashMap<String, String>();
+
+        ResponseConnection() throws MalformedURLException {
+            super(new URL("http://example.com/image.png"));
+        }
+
+        ResponseConnection header(String name, String value) {
+            mHeaders.put(name, value);
+            return this;
+        }
+
+        ResponseConnection dateHeader(String name, long millis) {
+            SimpleDateFormat format = new SimpleDateFormat(
+                    "EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+            format.setTimeZone(TimeZone.getTimeZone("GMT"));
+            return header(name, format.format(new Date(millis)));
+        }
+
+        @Override
+        public String getHeaderField(String name) {
+            return mHeaders.get(name);
+        }
+
+        @Override
+        public void setRequestProperty(String key, String value) {
+            mRequestHeaders.put(key, value);
+        }
+
+        @Override
+        public void connect() {
+        }
+
+        @Override
+        public void disconnect() {
+        }
+
+        @Override
+        public boolean usingProxy() {
+            return false;
+        }
+    }
+
+    @Test
+    public void expiresAfterMaxAge() throws Exception {
+        HttpCacheMetadata metadata = HttpCacheMetadata.fromResponse(
+                new ResponseConnection().header("Cache-Control",
+                        "public, max-age=60"), NOW);
+
+        assertEquals(NOW + 60000, metadata.getExpires());
+        assertTrue(metadata.isFresh(NOW + 59999));
+        assertFalse(metadata.isFresh(NOW + 60000));
+    }
+
+    @Test
+    public void subtractsAgeFromMaxAge() throws Exception {
+        HttpCacheMetadata metadata = HttpCacheMetadata.fromResponse(
+                new ResponseConnection().header("Cache-Control", "max-age=60")
+                        .header("Age", "20"), NOW);
+
+        assertEquals(NOW + 40000, metadata.getExpires());
+    }
+
+    @Test
+    public void noCacheExpiresImmediately() throws Exception {
+        HttpCacheMetadata metadata = HttpCacheMetadata.fromResponse(
+                new ResponseConnection().header("Cache-Control",
+                        "max-age=60, no-cache"), NOW);
+
+        assertFalse(metadata.isFresh(NOW));
+    }
+
+    @Test
+    public void noStoreIsNotStorable() throws Exception {
+        HttpCacheMetadata metadata = HttpCacheMetadata.fromResponse(
+                new ResponseConnection().header("Cache-Control",
+                        "private, no-store"), NOW);
+
+        assertFalse(metadata.isFresh(NOW));
+        assertFalse(metadata.isStorable());
+        assertTrue(HttpCacheMetadata.fromResponse(
+                new ResponseConnection().header("Cache-Control", "no-cache"),
+                NOW).isStorable());
+    }
+
+    @Test
+    public void expiresRelativeToServerDate() throws Exception {
+        // The server's clock is an hour ahead.
+        long served = NOW + 3600000;
+        HttpCacheMetadata metadata = HttpCacheMetadata.fromResponse(
+                new ResponseConnection().dateHeader("Date", served)
+                        .dateHeader("Expires", served + 120000), NOW);
+
+        assertEquals(NOW + 120000, metadata.getExpires());
+    }
+
+    @Test
+    public void staysFreshForATenthOfLastModifiedAge() throws Exception {
+        HttpCacheMetadata metadata = HttpCacheMetadata.fromResponse(
+                new ResponseConnection().dateHeader("Date", NOW).dateHeader(
+                        "Last-Modified", NOW - 100000000), NOW);
+
+        assertEquals(NOW + 10000000, metadata.getExpires());
+    }
+
+    @Test
+    public void neverExpiresWithoutHeaders() throws Exception {
+        HttpCacheMetadata metadata = HttpCacheMetadata.fromResponse(
+                new ResponseConnection(), NOW);
+
+        assertEquals(HttpCacheMetadata.NEVER, metadata.getExpires());
+        assertTrue(metadata.isFresh(Long.MAX_VALUE - 1));
+    }
+
+    @Test
+    public void ignoresOtherConnections() throws Exception {
+        URLConnection connection = new URLConnection(new URL(
+                "http://example.com/")) {
+            @Override
+            public void connect() {
+            }
+        };
+        assertNull(HttpCacheMetadata.fromResponse(connection, NOW));
+    }
+
+    @Test
+    public void addsConditionalHeaders() throws Exception {
+        HttpCacheMetadata metadata = HttpCacheMetadata.fromResponse(
+                new ResponseConnection().header("ETag", "\"abc\"").header(
+                        "Last-Modified", "Tue, 15 Nov 1994 12:45:26 GMT"),
+                NOW);
+        ResponseConnection request = new ResponseConnection();
+        metadata.addConditionalHeaders(request);
+
+        assertEquals("\"abc\"", request.mRequestHeaders.get("If-None-Match"));
+        assertEquals("Tue, 15 Nov 1994 12:45:26 GMT",
+                request.mRequestHeaders.get("If-Modified-Since"));
+    }
+
+    @Test
+    public void revalidationKeepsValidatorsNotRepeated() throws Exception {
+        HttpCacheMetadata metadata = HttpCacheMetadata.fromResponse(
+                new ResponseConnection().header("ETag", "\"abc\"").header(
+                        "Cache-Control", "max-age=10"), NOW);
+        HttpCacheMetadata revalidated = metadata.revalidate(
+                new ResponseConnection().header("Cache-Control", "max-age=60"),
+                NOW + 20000);
+
+        assertEquals(NOW + 80000, revalidated.getExpires());
+        ResponseConnection request = new ResponseConnection();
+        revalidated.addConditionalHeaders(request);
+        assertEquals("\"abc\"", request.mRequestHeaders.get("If-None-Match"));
+    }
+
+    @Test
+    public void formatsAndParses() throws Exception {
+        HttpCacheMetadata metadata = HttpCacheMetadata.fromResponse(
+                new ResponseConnection().header("ETag", "\"abc\"").header(
+                        "Cache-Control", "max-age=60"), NOW);
+        HttpCacheMetadata parsed = HttpCacheMetadata.parse(metadata.format());
+
+        assertEquals(metadata.getExpires(), parsed.getExpires());
+        assertEquals(metadata.format(), parsed.format());
+    }
+
+    @Test
+    public void rejectsMalformedStrings() {
+        assertNull(HttpCacheMetadata.parse(null));
+        assertNull(HttpCacheMetadata.parse(""));
+        assertNull(HttpCacheMetadata.parse("123"));
+        assertNull(HttpCacheMetadata.parse("soon\n\n"));
+    }
+
+}
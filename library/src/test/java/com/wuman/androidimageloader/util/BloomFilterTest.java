@@ -0,0 +1,65 @@
+package com.wuman.androidimageloader.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class BloomFilterTest {
+
+    private static final int COUNT = 10000;
+
+    @Test
+    public void emptyFilterContainsNothing() {
+        BloomFilter filter = new BloomFilter(COUNT);
+        assertFalse(filter.mightContain("http://example.com/0.png"));
+        assertEquals(0, filter.count());
+    }
+
+    @Test
+    public void neverMissesAddedStrings() {
+        BloomFilter filter = new BloomFilter(COUNT);
+        for (int i = 0; i < COUNT; i++) {
+            filter.add("http://example.com/" + i + ".png");
+        }
+        for (int i = 0; i < COUNT; i++) {
+            assertTrue(filter.mightContain("http://example.com/" + i + ".png"));
+        }
+        assertEquals(COUNT, filter.count());
+    }
+
+    @Test
+    public void rarelyMatchesOtherStrings() {
+        BloomFilter filter = new BloomFilter(COUNT);
+        for (int i = 0; i < COUNT; i++) {
+            filter.add("http://example.com/" + i + ".png");
+        }
+        int falsePositives = 0;
+        for (int i = COUNT; i < 2 * COUNT; i++) {
+            if (filter.mightContain("http://example.com/" + i + ".png")) {
+                falsePositives++;
+            }
+        }
+        // About one percent is expected.
+        assertTrue("false positives: " + falsePositives,
+                falsePositives < COUNT * 3 / 100);
+    }
+
+    @Test
+    public void neverMissesWhenOverfilled() {
+        BloomFilter filter = new BloomFilter(10);
+        for (int i = 0; i < 1000; i++) {
+            filter.add(Integer.toString(i));
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(filter.mightContain(Integer.toString(i)));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonPositiveCount() {
+        new BloomFilter(0);
+    }
+
+}
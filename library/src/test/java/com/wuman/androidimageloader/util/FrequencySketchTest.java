@@ -0,0 +1,78 @@
+package com.wuman.androidimageloader.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class FrequencySketchTest {
+
+    @Test
+    public void countsOccurrences() {
+        FrequencySketch sketch = new FrequencySketch(1024);
+        for (int i = 0; i < 3; i++) {
+            sketch.increment("a");
+        }
+        sketch.increment("b");
+
+        assertEquals(3, sketch.frequency("a"));
+        assertEquals(1, sketch.frequency("b"));
+        assertEquals(0, sketch.frequency("c"));
+    }
+
+    @Test
+    public void neverUnderestimates() {
+        // More keys than counters in a row, but too few additions to age.
+        FrequencySketch sketch = new FrequencySketch(64);
+        for (int i = 0; i < 100; i++) {
+            for (int j = 0; j <= i % 5; j++) {
+                sketch.increment(i);
+            }
+        }
+        for (int i = 0; i < 100; i++) {
+            assertTrue(sketch.frequency(i) >= i % 5 + 1);
+        }
+    }
+
+    @Test
+    public void stopsCountingAtFifteen() {
+        FrequencySketch sketch = new FrequencySketch(1024);
+        for (int i = 0; i < 100; i++) {
+            sketch.increment("a");
+        }
+        assertEquals(15, sketch.frequency("a"));
+    }
+
+    @Test
+    public void halvesCountsWhenAging() {
+        // Sized for 1024 keys, the sketch ages after 10240 additions.
+        FrequencySketch sketch = new FrequencySketch(1024);
+        for (int i = 0; i < 15; i++) {
+            sketch.increment("hot");
+        }
+        for (int i = 15; i < 10239; i++) {
+            sketch.increment(i);
+        }
+        assertEquals(15, sketch.frequency("hot"));
+
+        sketch.increment(-1);
+        assertEquals(7, sketch.frequency("hot"));
+    }
+
+    @Test
+    public void ensureCapacityForgetsCountsWhenGrowing() {
+        FrequencySketch sketch = new FrequencySketch(16);
+        sketch.increment("a");
+        sketch.ensureCapacity(16);
+        assertEquals(1, sketch.frequency("a"));
+
+        sketch.ensureCapacity(4096);
+        assertEquals(0, sketch.frequency("a"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonPositiveCount() {
+        new FrequencySketch(0);
+    }
+
+}
@@ -0,0 +1,125 @@
+package com.wuman.androidimageloader.util.concurrent;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class AdaptiveThreadPoolSizerTest {
+
+    /**
+     * A sizer reading a clock advanced by the test.
+     */
+    private static class TestSizer extends AdaptiveThreadPoolSizer {
+
+        long mNow;
+
+        TestSizer(ThreadPoolExecutor executor, int minPoolSize,
+                int maxPoolSize) {
+            super(executor, minPoolSize, maxPoolSize);
+        }
+
+        @Override
+        long now() {
+            return mNow;
+        }
+
+        /**
+         * Reports a window of four tasks completing 250 ms apart, each taking
+         * the given time and transferring no known number of bytes.
+         */
+        void completeWindow(long latencyMillis) {
+            for (int i = 0; i < 4; i++) {
+                mNow += 250;
+                onTaskCompleted(latencyMillis, 0);
+            }
+        }
+    }
+
+    private static final Runnable NO_OP = new Runnable() {
+        @Override
+        public void run() {
+        }
+    };
+
+    private ThreadPoolExecutor mExecutor;
+
+    private ThreadPoolExecutor newExecutor(int poolSize) {
+        mExecutor = new ThreadPoolExecutor(poolSize, poolSize, 1,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        return mExecutor;
+    }
+
+    @After
+    public void tearDown() {
+        if (mExecutor != null) {
+            mExecutor.getQueue().clear();
+            mExecutor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void measuresThroughputInTasks() {
+        TestSizer sizer = new TestSizer(newExecutor(2), 1, 4);
+        sizer.completeWindow(250);
+
+        assertEquals(4.0, sizer.getThroughput(), 0.001);
+        assertEquals(250.0, sizer.getLatency(), 0.001);
+        assertEquals(0.0, sizer.getByteRate(), 0.001);
+    }
+
+    @Test
+    public void growsWhileWorkIsQueued() {
+        TestSizer sizer = new TestSizer(newExecutor(1), 1, 3);
+        mExecutor.getQueue().add(NO_OP);
+        sizer.completeWindow(250);
+        assertEquals(2, sizer.getPoolSize());
+        assertEquals(2, mExecutor.getCorePoolSize());
+
+        // Throughput is unchanged, which does not stop growth while latency
+        // is not congested.
+        sizer.completeWindow(250);
+        sizer.completeWindow(250);
+        assertEquals(3, sizer.getPoolSize());
+    }
+
+    @Test
+    public void keepsSizeWithoutQueuedWork() {
+        TestSizer sizer = new TestSizer(newExecutor(2), 1, 4);
+        sizer.completeWindow(250);
+        sizer.completeWindow(250);
+        assertEquals(2, sizer.getPoolSize());
+    }
+
+    @Test
+    public void shrinksWhenCongested() {
+        TestSizer sizer = new TestSizer(newExecutor(8), 1, 8);
+        mExecutor.getQueue().add(NO_OP);
+        sizer.completeWindow(250);
+
+        // Latency quadruples without any gain in throughput.
+        sizer.completeWindow(1000);
+        assertEquals(6, sizer.getPoolSize());
+        assertEquals(6, mExecutor.getMaximumPoolSize());
+    }
+
+    @Test
+    public void clampsToBounds() {
+        TestSizer sizer = new TestSizer(newExecutor(8), 1, 4);
+        assertEquals(4, sizer.getPoolSize());
+
+        sizer.setBounds(6, 10);
+        assertEquals(6, sizer.getPoolSize());
+        assertEquals(6, mExecutor.getCorePoolSize());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidBounds() {
+        new TestSizer(newExecutor(1), 2, 1);
+    }
+
+}
@@ -0,0 +1,262 @@
+package com.wuman.androidimageloader.util.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class PriorityBlockingStackTest {
+
+    private static class Task implements Prioritized {
+        private final String mName;
+        private int mPriority;
+
+        Task(String name, int priority) {
+            mName = name;
+            mPriority = priority;
+        }
+
+        @Override
+        public int getPriority() {
+            return mPriority;
+        }
+
+        @Override
+        public String toString() {
+            return mName;
+        }
+    }
+
+    /**
+     * A task that records its name once a pool runs it.
+     */
+    private static class LoggingTask extends Task implements Runnable {
+        private final List<String> mLog;
+
+        LoggingTask(String name, int priority, List<String> log) {
+            super(name, priority);
+            mLog = log;
+        }
+
+        @Override
+        public void run() {
+            synchronized (mLog) {
+                mLog.add(toString());
+            }
+        }
+    }
+
+    /**
+     * Occupies the only thread of a pool until it is released, so that the
+     * tasks submitted meanwhile are queued.
+     */
+    private static class Gate implements Runnable {
+        final CountDownLatch mStarted = new CountDownLatch(1);
+        final CountDownLatch mReleased = new CountDownLatch(1);
+
+        @Override
+        public void run() {
+            mStarted.countDown();
+            try {
+                mReleased.await();
+            } catch (InterruptedException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Creates a pool of one thread queueing its tasks like a stage of the
+     * loading pipeline, and occupies the thread with the given gate.
+     */
+    private static ThreadPoolExecutor newBlockedPool(Gate gate)
+            throws InterruptedException {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(1, 1, 1,
+                TimeUnit.SECONDS, new PriorityBlockingStack<Runnable>(2));
+        pool.execute(gate);
+        assertTrue(gate.mStarted.await(5, TimeUnit.SECONDS));
+        return pool;
+    }
+
+    private static void release(ThreadPoolExecutor pool, Gate gate)
+            throws InterruptedException {
+        gate.mReleased.countDown();
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void takesHigherPriorityClassesFirst() {
+        PriorityBlockingStack<Task> stack = new PriorityBlockingStack<Task>(3);
+        Task low = new Task("low", 2);
+        Task high = new Task("high", 0);
+        Task normal = new Task("normal", 1);
+        stack.offer(low);
+        stack.offer(high);
+        stack.offer(normal);
+
+        assertSame(high, stack.poll());
+        assertSame(normal, stack.poll());
+        assertSame(low, stack.poll());
+        assertNull(stack.poll());
+    }
+
+    @Test
+    public void takesNewestFirstWithinAClass() {
+        PriorityBlockingStack<Task> stack = new PriorityBlockingStack<Task>(2);
+        Task first = new Task("first", 1);
+        Task second = new Task("second", 1);
+        Task third = new Task("third", 1);
+        stack.offer(first);
+        stack.offer(second);
+        stack.offer(third);
+
+        assertSame(third, stack.peek());
+        assertSame(third, stack.poll());
+        assertSame(second, stack.poll());
+        assertSame(first, stack.poll());
+    }
+
+    @Test
+    public void clampsPrioritiesAndQueuesOtherElementsLast() {
+        PriorityBlockingStack<Object> stack = new PriorityBlockingStack<Object>(
+                2);
+        Object plain = new Object();
+        Task tooLow = new Task("tooLow", 5);
+        Task tooHigh = new Task("tooHigh", -5);
+        stack.offer(plain);
+        stack.offer(tooLow);
+        stack.offer(tooHigh);
+
+        assertSame(tooHigh, stack.poll());
+        assertSame(tooLow, stack.poll());
+        assertSame(plain, stack.poll());
+    }
+
+    @Test
+    public void reprioritizeMovesQueuedElement() {
+        PriorityBlockingStack<Task> stack = new PriorityBlockingStack<Task>(2);
+        Task visible = new Task("visible", 1);
+        Task other = new Task("other", 1);
+        stack.offer(visible);
+        stack.offer(other);
+
+        visible.mPriority = 0;
+        assertTrue(stack.reprioritize(visible));
+        assertEquals(2, stack.size());
+        assertSame(visible, stack.poll());
+        assertSame(other, stack.poll());
+
+        assertFalse(stack.reprioritize(visible));
+        assertEquals(0, stack.size());
+    }
+
+    @Test
+    public void removeDropsElement() {
+        PriorityBlockingStack<Task> stack = new PriorityBlockingStack<Task>(2);
+        Task kept = new Task("kept", 1);
+        Task removed = new Task("removed", 0);
+        stack.offer(kept);
+        stack.offer(removed);
+
+        assertTrue(stack.remove(removed));
+        assertFalse(stack.remove(removed));
+        assertEquals(1, stack.size());
+        assertSame(kept, stack.poll());
+    }
+
+    @Test
+    public void poolRunsQueuedTasksByPriorityThenNewestFirst()
+            throws InterruptedException {
+        List<String> log = new ArrayList<String>();
+        Gate gate = new Gate();
+        ThreadPoolExecutor pool = newBlockedPool(gate);
+        pool.execute(new LoggingTask("prefetch", 1, log));
+        pool.execute(new LoggingTask("visible", 0, log));
+        pool.execute(new LoggingTask("later prefetch", 1, log));
+        pool.execute(new LoggingTask("later visible", 0, log));
+
+        release(pool, gate);
+        assertEquals(Arrays.asList("later visible", "visible",
+                "later prefetch", "prefetch"), log);
+    }
+
+    @Test
+    public void poolRunsPromotedTaskFirst() throws InterruptedException {
+        List<String> log = new ArrayList<String>();
+        Gate gate = new Gate();
+        ThreadPoolExecutor pool = newBlockedPool(gate);
+        PriorityBlockingStack<Runnable> queue = (PriorityBlockingStack<Runnable>) pool
+                .getQueue();
+        LoggingTask promoted = new LoggingTask("promoted", 1, log);
+        pool.execute(promoted);
+        pool.execute(new LoggingTask("other", 1, log));
+
+        ((Task) promoted).mPriority = 0;
+        assertTrue(queue.reprioritize(promoted));
+        release(pool, gate);
+        assertEquals(Arrays.asList("promoted", "other"), log);
+    }
+
+    @Test
+    public void poolDoesNotRunRemovedTask() throws InterruptedException {
+        List<String> log = new ArrayList<String>();
+        Gate gate = new Gate();
+        ThreadPoolExecutor pool = newBlockedPool(gate);
+        LoggingTask cancelled = new LoggingTask("cancelled", 0, log);
+        pool.execute(cancelled);
+        pool.execute(new LoggingTask("kept", 1, log));
+
+        assertTrue(pool.remove(cancelled));
+        assertFalse(pool.remove(cancelled));
+        release(pool, gate);
+        assertEquals(Arrays.asList("kept"), log);
+    }
+
+    @Test
+    public void pollTimesOutWhenEmpty() throws InterruptedException {
+        PriorityBlockingStack<Task> stack = new PriorityBlockingStack<Task>(1);
+        assertNull(stack.poll(10, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void takeWaitsForOffer() throws InterruptedException {
+        final PriorityBlockingStack<Task> stack = new PriorityBlockingStack<Task>(
+                1);
+        final Task task = new Task("task", 0);
+        Thread producer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                stack.offer(task);
+            }
+        };
+        producer.start();
+        assertSame(task, stack.take());
+        producer.join();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNoLevels() {
+        new PriorityBlockingStack<Task>(0);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void rejectsNull() {
+        new PriorityBlockingStack<Task>(1).offer(null);
+    }
+
+}
@@ -89,8 +89,7 @@ public class CustomViewBindingFragment extends ListFragment {
         public void bind(TextView view, String url) {
             super.bind(view, url);
 
-            LoadResult bindResult = mImageLoader.load(url, new ViewCallback(
-                    view));
+            LoadResult bindResult = load(view, url);
             if (bindResult == LoadResult.LOADING) {
                 Drawable d = view.getResources()
                         .getDrawable(R.drawable.loading);